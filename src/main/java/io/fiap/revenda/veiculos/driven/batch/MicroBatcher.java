@@ -0,0 +1,121 @@
+package io.fiap.revenda.veiculos.driven.batch;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Collects individual keys for up to {@code window}, or until {@code maxSize} keys are queued, and resolves them
+ * with a single call to {@code loader}. Identical keys in flight share the same result; keys missing from the
+ * loader's map complete empty. A key that cannot be queued because the batcher was disposed fails instead of
+ * waiting forever.
+ * <p>
+ * {@link #load} is called from event-loop threads, so queueing a key never blocks nor spins.
+ */
+public class MicroBatcher<K, V> implements Disposable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final Map<K, Sinks.One<V>> pendentes = new ConcurrentHashMap<>();
+    private final Queue<K> entrada = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger emissoes = new AtomicInteger();
+    private final Sinks.Many<K> fila = Sinks.unsafe().many().unicast().onBackpressureBuffer();
+    private final Function<List<K>, Mono<Map<K, V>>> loader;
+    private final Disposable assinatura;
+
+    public MicroBatcher(Integer maxSize,
+                        Duration window,
+                        Integer concurrency,
+                        Function<List<K>, Mono<Map<K, V>>> loader) {
+        this.loader = loader;
+        this.assinatura = fila.asFlux()
+            .bufferTimeout(maxSize, window, true)
+            .flatMap(this::resolve, concurrency)
+            .subscribe();
+    }
+
+    public Mono<V> load(K key) {
+        return Mono.defer(() -> {
+            var novo = Sinks.<V>one();
+            var existente = pendentes.putIfAbsent(key, novo);
+            if (existente != null) {
+                return existente.asMono();
+            }
+            emitir(key);
+            return novo.asMono();
+        });
+    }
+
+    @Override
+    public void dispose() {
+        assinatura.dispose();
+        pendentes.keySet().forEach(key -> falhar(key, new IllegalStateException("Carregamento em lote encerrado.")));
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return assinatura.isDisposed();
+    }
+
+    /**
+     * Serializes emissions into the sink without locking: every caller queues its key, and only the caller that
+     * moves {@code emissoes} from zero drains the queue, including keys queued by others meanwhile. A failed
+     * emission, once the subscriber is gone, fails the key's pending result.
+     */
+    private void emitir(K key) {
+        entrada.offer(key);
+        if (emissoes.getAndIncrement() != 0) {
+            return;
+        }
+
+        var restantes = 1;
+        do {
+            K proxima;
+            while ((proxima = entrada.poll()) != null) {
+                var resultado = fila.tryEmitNext(proxima);
+                if (resultado.isFailure()) {
+                    falhar(proxima, new IllegalStateException(
+                        String.format("Chave [%s] não pôde ser enfileirada: %s.", proxima, resultado)));
+                }
+            }
+            restantes = emissoes.addAndGet(-restantes);
+        } while (restantes != 0);
+    }
+
+    private void falhar(K key, Throwable throwable) {
+        var sink = pendentes.remove(key);
+        if (sink != null) {
+            sink.tryEmitError(throwable);
+        }
+    }
+
+    private Mono<Void> resolve(List<K> keys) {
+        return Mono.defer(() -> loader.apply(keys))
+            .defaultIfEmpty(Map.of())
+            .doOnNext(valores -> keys.forEach(key -> {
+                var sink = pendentes.remove(key);
+                var valor = valores.get(key);
+                if (sink != null && valor != null) {
+                    sink.tryEmitValue(valor);
+                } else if (sink != null) {
+                    sink.tryEmitEmpty();
+                }
+            }))
+            .onErrorResume(throwable -> {
+                LOGGER.error("an error occurred while resolving batch of {} keys", keys.size(), throwable);
+                keys.forEach(key -> falhar(key, throwable));
+                return Mono.empty();
+            })
+            .then();
+    }
+}
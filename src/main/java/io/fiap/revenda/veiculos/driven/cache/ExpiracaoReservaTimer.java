@@ -0,0 +1,101 @@
+package io.fiap.revenda.veiculos.driven.cache;
+
+import io.fiap.revenda.veiculos.driven.domain.Calendario;
+import io.fiap.revenda.veiculos.driven.event.ReservaExpiradaEvent;
+import io.fiap.revenda.veiculos.driven.repository.ReservaRepository;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hashed timer wheel holding one timeout per known reservation; when the expiry day ends a
+ * {@link ReservaExpiradaEvent} is published. Scheduling and cancelling are O(1), so every active reservation can
+ * be tracked.
+ * <p>
+ * At startup every unexpired vehicle claim is scheduled; afterwards reservations are scheduled and cancelled by
+ * {@link io.fiap.revenda.veiculos.driven.service.ReservaService} as this replica writes them. A reservation
+ * created by another replica since startup is missed here and left to the replica that created it or to
+ * DynamoDB TTL.
+ */
+@Component
+public class ExpiracaoReservaTimer implements CommandLineRunner, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpiracaoReservaTimer.class);
+
+    private final ApplicationEventPublisher publisher;
+    private final ReservaRepository repository;
+    private final HashedWheelTimer timer;
+    private final Map<String, Agendamento> agendamentos = new ConcurrentHashMap<>();
+
+    public ExpiracaoReservaTimer(ApplicationEventPublisher publisher,
+                                 ReservaRepository repository,
+                                 @Value("${aws.dynamo.reservas.expiracao.tick:1000}") String tick,
+                                 @Value("${aws.dynamo.reservas.expiracao.wheelSize:512}") String wheelSize) {
+        this.publisher = publisher;
+        this.repository = repository;
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("reservaExpiracaoTimer", true),
+            Long.parseLong(tick), TimeUnit.MILLISECONDS, Integer.parseInt(wheelSize));
+    }
+
+    @Override
+    public void run(String... args) {
+        repository.fetchBloqueios()
+            .doOnNext(bloqueio -> agendar(bloqueio.getReservaId(), bloqueio.getVeiculoId(), bloqueio.getExpiraEm()))
+            .count()
+            .subscribe(
+                total -> LOGGER.info("{} reservation expiries scheduled", total),
+                throwable -> LOGGER.error("an error occurred while scheduling reservation expiries", throwable));
+    }
+
+    /**
+     * Schedules the expiry of the reservation, replacing an earlier schedule with a different date.
+     */
+    public void agendar(String reservaId, String veiculoId, LocalDate expiraEm) {
+        var atual = agendamentos.get(reservaId);
+        if (atual != null && atual.expiraEm().equals(expiraEm)) {
+            return;
+        }
+
+        var expiraAs = Calendario.fimDoDia(expiraEm);
+        var atraso = Math.max(0L, Duration.between(Instant.now(), expiraAs).toMillis());
+        var timeout = timer.newTimeout(agendado -> {
+            if (agendamentos.remove(reservaId, new Agendamento(agendado, expiraEm))) {
+                publisher.publishEvent(new ReservaExpiradaEvent(reservaId, veiculoId, expiraEm));
+                LOGGER.debug("reservation {} of vehicle {} expired", reservaId, veiculoId);
+            }
+        }, atraso, TimeUnit.MILLISECONDS);
+
+        var anterior = agendamentos.put(reservaId, new Agendamento(timeout, expiraEm));
+        if (anterior != null) {
+            anterior.timeout().cancel();
+        }
+    }
+
+    public void cancelar(String reservaId) {
+        var anterior = agendamentos.remove(reservaId);
+        if (anterior != null) {
+            anterior.timeout().cancel();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        timer.stop();
+    }
+
+    private record Agendamento(Timeout timeout, LocalDate expiraEm) {
+    }
+}
@@ -0,0 +1,49 @@
+package io.fiap.revenda.veiculos.driven.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Bounded read-through cache in front of {@link io.fiap.revenda.veiculos.driven.repository.VeiculoRepository#fetchById}.
+ * Concurrent misses for the same ID share a single load; hit, miss and eviction counters are published
+ * as the {@code cache.*} metrics tagged {@code cache=veiculos}. Entries are only written by that load, which
+ * {@link #invalidate} discards when it is still in flight, so bulk reads never populate the cache.
+ */
+@Component
+public class VeiculoCache {
+
+    private final AsyncCache<String, Veiculo> cache;
+
+    public VeiculoCache(MeterRegistry meterRegistry,
+                        @Value("${cache.veiculos.maximumSize:10000}") String maximumSize,
+                        @Value("${cache.veiculos.expireAfterWrite:60000}") String expireAfterWrite) {
+        AsyncCache<String, Veiculo> cache = Caffeine.newBuilder()
+            .maximumSize(Long.parseLong(maximumSize))
+            .expireAfterWrite(Duration.ofMillis(Long.parseLong(expireAfterWrite)))
+            .recordStats()
+            .buildAsync();
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry, cache, "veiculos");
+    }
+
+    public Mono<Veiculo> get(String id, Function<String, Mono<Veiculo>> loader) {
+        return Mono.fromFuture(() -> cache.get(id, (key, executor) -> loader.apply(key).toFuture()), true);
+    }
+
+    public void invalidate(String id) {
+        cache.synchronous().invalidate(id);
+    }
+
+    public Map<String, Veiculo> getAllPresent(Collection<String> ids) {
+        return cache.synchronous().getAllPresent(ids);
+    }
+}
@@ -0,0 +1,20 @@
+package io.fiap.revenda.veiculos.driven.client;
+
+/**
+ * Outcome of one entry of an SQS batch call. {@code id} is the SQS message ID, or the local entry ID of a message
+ * that was never accepted; {@code erro} is only set on failure.
+ */
+public record ResultadoMensagem(String id, String erro) {
+
+    public static ResultadoMensagem sucesso(String id) {
+        return new ResultadoMensagem(id, null);
+    }
+
+    public static ResultadoMensagem falha(String id, String erro) {
+        return new ResultadoMensagem(id, erro);
+    }
+
+    public Boolean isSucesso() {
+        return erro == null;
+    }
+}
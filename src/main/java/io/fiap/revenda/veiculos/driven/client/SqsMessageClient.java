@@ -1,96 +1,442 @@
 package io.fiap.revenda.veiculos.driven.client;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.batch.MicroBatcher;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.vavr.CheckedFunction1;
-import io.vavr.Function1;
+import jakarta.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.function.Tuple2;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
 
 @Service
-public class SqsMessageClient {
+public class SqsMessageClient implements DisposableBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SqsMessageClient.class);
+    public static final Integer MAX_BATCH_SIZE = 10;
+    private static final Integer MAX_BATCH_BYTES = 256 * 1024;
 
     private final SqsAsyncClient sqsClient;
     private final ObjectMapper objectMapper;
     private final String numberOfMessages;
     private final String waitTimeMessage;
     private final String visibilityTimeOut;
+    private final Duration deleteLinger;
+    private final Integer deleteConcurrency;
+    private final Duration sendLinger;
+    private final Integer sendConcurrency;
+    private final Map<String, Mono<String>> queueUrls = new ConcurrentHashMap<>();
+    private final Map<String, MicroBatcher<Message, ResultadoMensagem>> deleteBatchers = new ConcurrentHashMap<>();
+    private final Map<String, MicroBatcher<Envio, ResultadoMensagem>> sendBatchers = new ConcurrentHashMap<>();
+    private final Map<String, EmVoo> emVoo = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> processingTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> heartbeatCounters = new ConcurrentHashMap<>();
+    private final Duration heartbeatInterval;
+    private final Duration heartbeatMargin;
+    private final Duration heartbeatMaxExtension;
+    private final Disposable.Swap heartbeat = Disposables.swap();
 
     public SqsMessageClient(SqsAsyncClient sqsClient,
                             ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
                             @Value("${aws.sqs.numberOfMessages}") String numberOfMessages,
                             @Value("${aws.sqs.waitTimeMessage}") String waitTimeMessage,
-                            @Value("${aws.sqs.visibilityTimeOut}") String visibilityTimeOut) {
+                            @Value("${aws.sqs.visibilityTimeOut}") String visibilityTimeOut,
+                            @Value("${aws.sqs.delete.linger:20}") String deleteLinger,
+                            @Value("${aws.sqs.delete.concurrency:4}") String deleteConcurrency,
+                            @Value("${aws.sqs.send.linger:20}") String sendLinger,
+                            @Value("${aws.sqs.send.concurrency:4}") String sendConcurrency,
+                            @Value("${aws.sqs.heartbeat.interval:5000}") String heartbeatInterval,
+                            @Value("${aws.sqs.heartbeat.margin:10000}") String heartbeatMargin,
+                            @Value("${aws.sqs.heartbeat.maxExtension:900000}") String heartbeatMaxExtension) {
         this.sqsClient = sqsClient;
         this.objectMapper = objectMapper;
         this.numberOfMessages = numberOfMessages;
         this.waitTimeMessage = waitTimeMessage;
         this.visibilityTimeOut = visibilityTimeOut;
+        this.deleteLinger = Duration.ofMillis(Long.parseLong(deleteLinger));
+        this.deleteConcurrency = Integer.parseInt(deleteConcurrency);
+        this.sendLinger = Duration.ofMillis(Long.parseLong(sendLinger));
+        this.sendConcurrency = Integer.parseInt(sendConcurrency);
+        this.meterRegistry = meterRegistry;
+        this.heartbeatInterval = Duration.ofMillis(Long.parseLong(heartbeatInterval));
+        this.heartbeatMargin = Duration.ofMillis(Long.parseLong(heartbeatMargin));
+        this.heartbeatMaxExtension = Duration.ofMillis(Long.parseLong(heartbeatMaxExtension));
+    }
+
+    /**
+     * Starts the visibility heartbeat once the bean is fully initialized, so the constructor has no side effects.
+     */
+    @PostConstruct
+    public void start() {
+        heartbeat.update(Flux.interval(heartbeatInterval)
+            .onBackpressureDrop()
+            .concatMap(tick -> heartbeat())
+            .subscribe());
     }
 
     public Mono<ReceiveMessageResponse> receive(String queueName) {
-        return getQueueUrl().apply(queueName)
-            .map(GetQueueUrlResponse::queueUrl)
+        return receive(queueName, Integer.parseInt(numberOfMessages));
+    }
+
+    public Mono<ReceiveMessageResponse> receive(String queueName, Integer maxNumberOfMessages) {
+        return queueUrl(queueName)
             .map(queueUrl -> ReceiveMessageRequest.builder()
                 .queueUrl(queueUrl)
                 .waitTimeSeconds(Integer.parseInt(waitTimeMessage))
-                .maxNumberOfMessages(Integer.parseInt(numberOfMessages))
+                .maxNumberOfMessages(maxNumberOfMessages)
                 .visibilityTimeout(Integer.parseInt(visibilityTimeOut))
+                .messageSystemAttributeNames(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT)
                 .build()
-            ).flatMap(request -> Mono.fromFuture(sqsClient.receiveMessage(request)));
+            ).flatMap(request -> Mono.fromFuture(() -> sqsClient.receiveMessage(request)))
+            .doOnNext(response -> {
+                var agora = System.nanoTime();
+                var expiraEm = agora + Duration.ofSeconds(Long.parseLong(visibilityTimeOut)).toNanos();
+                response.messages().forEach(message -> emVoo.put(message.receiptHandle(),
+                    new EmVoo(queueName, message.receiptHandle(), agora, expiraEm)));
+            });
     }
 
-    public Mono<DeleteMessageResponse> delete(String queueName, Message message) {
-        return Mono.fromFuture(sqsClient.deleteMessage(DeleteMessageRequest.builder()
-                .queueUrl(queueName)
-                .receiptHandle(message.receiptHandle()).build()))
-            .doOnSuccess(deleteMessageResponse -> LOGGER.info("queue message has been deleted: {}", message.messageId()))
-            .doOnError(throwable -> LOGGER.error("an error occurred while deleting message", throwable));
+    /**
+     * Stops extending the visibility of a received message that will not be acknowledged, letting it become
+     * visible again once its current timeout expires.
+     */
+    public void release(String queueName, Message message) {
+        encerrar(message, "released");
     }
 
+    public Mono<Map<QueueAttributeName, String>> getQueueAttributes(String queueName, QueueAttributeName... names) {
+        return queueUrl(queueName)
+            .map(queueUrl -> GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(names)
+                .build())
+            .flatMap(request -> Mono.fromFuture(() -> sqsClient.getQueueAttributes(request)))
+            .map(GetQueueAttributesResponse::attributes);
+    }
+
+    /**
+     * Makes an unacknowledged message visible again only after {@code delay}.
+     */
+    public Mono<Void> changeVisibility(String queueName, Message message, Duration delay) {
+        encerrar(message, "retried");
+        return queueUrl(queueName)
+            .map(queueUrl -> ChangeMessageVisibilityRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(message.receiptHandle())
+                .visibilityTimeout((int) delay.toSeconds())
+                .build())
+            .flatMap(request -> Mono.fromFuture(() -> sqsClient.changeMessageVisibility(request)))
+            .then();
+    }
+
+    /**
+     * Number of times the message was received, including the current delivery.
+     */
+    public Integer getReceiveCount(Message message) {
+        return Integer.parseInt(message.attributes()
+            .getOrDefault(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, "1"));
+    }
+
+    /**
+     * Acknowledges the message through a {@code DeleteMessageBatch} shared with other acks of the same queue
+     * issued within {@code aws.sqs.delete.linger}. The result reports whether this particular entry was deleted.
+     * The message stops receiving visibility heartbeats as soon as the ack is issued.
+     */
+    public Mono<ResultadoMensagem> delete(String queueName, Message message) {
+        encerrar(message, "deleted");
+        return deleteBatchers.computeIfAbsent(queueName, name -> new MicroBatcher<>(MAX_BATCH_SIZE, deleteLinger,
+                deleteConcurrency, messages -> deleteBatch(name, messages)))
+            .load(message)
+            .doOnNext(resultado -> {
+                if (resultado.isSucesso()) {
+                    LOGGER.info("queue message has been deleted: {}", message.messageId());
+                } else {
+                    LOGGER.error("queue message could not be deleted: {} {}", message.messageId(), resultado.erro());
+                }
+            })
+            .doOnError(throwable -> LOGGER.error("an error occurred while deleting message", throwable));
+    }
 
     public <T> Mono<Void> send(String queueName, T payload) {
-        return Mono.just(serializePayload().unchecked().apply(payload))
-            .zipWith(getQueueUrl().apply(queueName))
-            .map(t -> buildMessageRequest().unchecked().apply(t))
-            .doOnError(throwable -> LOGGER.error("Failed to prepare message due to error.", throwable))
-            .flatMap(message -> Mono.fromFuture(sqsClient.sendMessage(message)))
-            .doOnError(throwable -> LOGGER.error("Failed to send message due to error.", throwable))
-            .doOnSuccess(response ->
-                LOGGER.debug("Message published to queue. Message ID: {} Body: {}", response.messageId(),
-                    response.md5OfMessageBody()))
+        return sendBatch(queueName, Flux.just(payload))
+            .next()
+            .flatMap(resultado -> resultado.isSucesso()
+                ? Mono.<Void>empty()
+                : Mono.error(new TechnicalException(resultado.erro())))
+            .doOnError(throwable -> LOGGER.error("Failed to send message due to error.", throwable));
+    }
+
+    /**
+     * Publishes every payload through {@code SendMessageBatch}: entries of the same queue sent within
+     * {@code aws.sqs.send.linger} share requests of up to 10 messages and 256 KB, with at most
+     * {@code aws.sqs.send.concurrency} requests in flight. Results follow the order of {@code payloads}; the ID
+     * of a successful result is the SQS message ID. A request that fails as a whole yields a failed result for
+     * each of its entries instead of erroring the returned flux.
+     */
+    public <T> Flux<ResultadoMensagem> sendBatch(String queueName, Flux<T> payloads) {
+        var batcher = sendBatchers.computeIfAbsent(queueName, name -> new MicroBatcher<>(MAX_BATCH_SIZE, sendLinger,
+            sendConcurrency, envios -> sendEnvios(name, envios)));
+
+        return payloads
+            .map(payload -> new Envio(UUID.randomUUID().toString(), serializePayload().unchecked().apply(payload)))
+            .flatMapSequential(envio -> batcher.load(envio)
+                    .defaultIfEmpty(ResultadoMensagem.falha(envio.id(), "Mensagem não enviada."))
+                    .onErrorResume(throwable -> Mono.just(ResultadoMensagem.falha(envio.id(),
+                        String.valueOf(throwable.getMessage())))),
+                MAX_BATCH_SIZE * sendConcurrency)
+            .doOnNext(resultado -> {
+                if (resultado.isSucesso()) {
+                    LOGGER.debug("Message published to queue. Message ID: {}", resultado.id());
+                } else {
+                    LOGGER.error("Failed to publish message to queue {}: {}", queueName, resultado.erro());
+                }
+            });
+    }
+
+    @Override
+    public void destroy() {
+        deleteBatchers.values().forEach(MicroBatcher::dispose);
+        sendBatchers.values().forEach(MicroBatcher::dispose);
+        heartbeat.dispose();
+    }
+
+    private void encerrar(Message message, String resultado) {
+        var registro = emVoo.remove(message.receiptHandle());
+        if (registro != null) {
+            processingTimers.computeIfAbsent(registro.queueName() + "/" + resultado,
+                    chave -> Timer.builder("sqs.message.processing")
+                        .tag("queue", registro.queueName())
+                        .tag("result", resultado)
+                        .register(meterRegistry))
+                .record(Duration.ofNanos(System.nanoTime() - registro.recebidoEm()));
+        }
+    }
+
+    /**
+     * Extends, through {@code ChangeMessageVisibilityBatch}, every in-flight message whose visibility ends within
+     * {@code aws.sqs.heartbeat.margin}. Messages held longer than {@code aws.sqs.heartbeat.maxExtension} are
+     * no longer extended.
+     */
+    private Mono<Void> heartbeat() {
+        var agora = System.nanoTime();
+        var limite = agora + heartbeatMargin.toNanos();
+
+        return Flux.fromIterable(emVoo.values())
+            .filter(registro -> registro.expiraEm() <= limite)
+            .filter(registro -> {
+                if (agora - registro.recebidoEm() < heartbeatMaxExtension.toNanos()) {
+                    return true;
+                }
+                LOGGER.warn("visibility of message {} is no longer extended after {}", registro.receiptHandle(),
+                    heartbeatMaxExtension);
+                emVoo.remove(registro.receiptHandle());
+                return false;
+            })
+            .groupBy(EmVoo::queueName)
+            .flatMap(grupo -> grupo.buffer(MAX_BATCH_SIZE)
+                .flatMap(registros -> changeVisibility(grupo.key(), registros)))
+            .onErrorResume(throwable -> {
+                LOGGER.error("an error occurred while extending message visibility", throwable);
+                return Mono.empty();
+            })
+            .then();
+    }
+
+    private Mono<Void> changeVisibility(String queueName, List<EmVoo> registros) {
+        var visibilidade = Integer.parseInt(visibilityTimeOut);
+        var request = queueUrl(queueName)
+            .map(queueUrl -> ChangeMessageVisibilityBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(IntStream.range(0, registros.size())
+                    .mapToObj(i -> ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(registros.get(i).receiptHandle())
+                        .visibilityTimeout(visibilidade)
+                        .build())
+                    .toList())
+                .build());
+
+        return request
+            .flatMap(batch -> Mono.fromFuture(() -> sqsClient.changeMessageVisibilityBatch(batch)))
+            .doOnNext(response -> {
+                var expiraEm = System.nanoTime() + Duration.ofSeconds(visibilidade).toNanos();
+                response.successful().forEach(entry -> {
+                    var registro = registros.get(Integer.parseInt(entry.id()));
+                    emVoo.computeIfPresent(registro.receiptHandle(), (handle, atual) -> atual.withExpiraEm(expiraEm));
+                });
+                response.failed().forEach(entry -> {
+                    var registro = registros.get(Integer.parseInt(entry.id()));
+                    LOGGER.error("visibility of message {} could not be extended: {} {}", registro.receiptHandle(),
+                        entry.code(), entry.message());
+                    emVoo.remove(registro.receiptHandle());
+                });
+                heartbeatCounters.computeIfAbsent(queueName, name -> Counter.builder("sqs.visibility.heartbeats")
+                        .tag("queue", name)
+                        .register(meterRegistry))
+                    .increment(response.successful().size());
+            })
             .then();
     }
 
+    /**
+     * Queue URLs are resolved once per queue; a failed lookup is not cached and is retried on the next call.
+     */
+    private Mono<String> queueUrl(String queueName) {
+        return queueUrls.computeIfAbsent(queueName, name -> Mono.fromFuture(() -> sqsClient.getQueueUrl(
+                GetQueueUrlRequest.builder()
+                    .queueName(name)
+                    .build()))
+            .map(GetQueueUrlResponse::queueUrl)
+            .doOnError(throwable -> LOGGER.error("Failed to get queueUrl", throwable))
+            .cacheInvalidateIf(url -> false));
+    }
+
+    private Mono<Map<Message, ResultadoMensagem>> deleteBatch(String queueName, List<Message> messages) {
+        var entries = IntStream.range(0, messages.size())
+            .mapToObj(i -> DeleteMessageBatchRequestEntry.builder()
+                .id(String.valueOf(i))
+                .receiptHandle(messages.get(i).receiptHandle())
+                .build())
+            .toList();
+
+        return queueUrl(queueName)
+            .map(queueUrl -> DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build())
+            .flatMap(request -> Mono.fromFuture(() -> sqsClient.deleteMessageBatch(request)))
+            .map(response -> convertDeleteBatch(messages, response));
+    }
+
+    private Map<Message, ResultadoMensagem> convertDeleteBatch(List<Message> messages,
+                                                                DeleteMessageBatchResponse response) {
+        var resultados = new HashMap<Message, ResultadoMensagem>();
+        response.successful().forEach(entry -> {
+            var message = messages.get(Integer.parseInt(entry.id()));
+            resultados.put(message, ResultadoMensagem.sucesso(message.messageId()));
+        });
+        response.failed().forEach(entry -> {
+            var message = messages.get(Integer.parseInt(entry.id()));
+            resultados.put(message, ResultadoMensagem.falha(message.messageId(),
+                String.format("%s: %s", entry.code(), entry.message())));
+        });
+        return resultados;
+    }
+
+    private Mono<Map<Envio, ResultadoMensagem>> sendEnvios(String queueName, List<Envio> envios) {
+        var resultados = new HashMap<Envio, ResultadoMensagem>();
+        var lotes = new ArrayList<List<Envio>>();
+        var lote = new ArrayList<Envio>();
+        var tamanhoLote = 0;
+
+        for (var envio : envios) {
+            var tamanho = envio.corpo().getBytes(StandardCharsets.UTF_8).length;
+            if (tamanho > MAX_BATCH_BYTES) {
+                resultados.put(envio,
+                    ResultadoMensagem.falha(envio.id(), "Mensagem excede o tamanho máximo de 256 KB."));
+                continue;
+            }
+            if (tamanhoLote + tamanho > MAX_BATCH_BYTES) {
+                lotes.add(lote);
+                lote = new ArrayList<>();
+                tamanhoLote = 0;
+            }
+            lote.add(envio);
+            tamanhoLote += tamanho;
+        }
+        if (!lote.isEmpty()) {
+            lotes.add(lote);
+        }
+
+        return queueUrl(queueName)
+            .flatMapMany(queueUrl -> Flux.fromIterable(lotes)
+                .flatMap(envioLote -> sendBatchRequest(queueUrl, envioLote)))
+            .reduce(resultados, (acumulado, parcial) -> {
+                acumulado.putAll(parcial);
+                return acumulado;
+            });
+    }
+
+    private Mono<Map<Envio, ResultadoMensagem>> sendBatchRequest(String queueUrl, List<Envio> envios) {
+        var request = SendMessageBatchRequest.builder()
+            .queueUrl(queueUrl)
+            .entries(IntStream.range(0, envios.size())
+                .mapToObj(i -> SendMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .messageBody(envios.get(i).corpo())
+                    .build())
+                .toList())
+            .build();
+
+        return Mono.fromFuture(() -> sqsClient.sendMessageBatch(request))
+            .map(response -> {
+                var resultados = new HashMap<Envio, ResultadoMensagem>();
+                response.successful().forEach(entry -> resultados.put(envios.get(Integer.parseInt(entry.id())),
+                    ResultadoMensagem.sucesso(entry.messageId())));
+                response.failed().forEach(entry -> {
+                    var envio = envios.get(Integer.parseInt(entry.id()));
+                    resultados.put(envio, ResultadoMensagem.falha(envio.id(),
+                        String.format("%s: %s", entry.code(), entry.message())));
+                });
+                return resultados;
+            })
+            .onErrorResume(throwable -> {
+                LOGGER.error("SendMessageBatch request failed for {} messages", envios.size(), throwable);
+                var resultados = new HashMap<Envio, ResultadoMensagem>();
+                envios.forEach(envio -> resultados.put(envio, ResultadoMensagem.falha(envio.id(),
+                    String.valueOf(throwable.getMessage()))));
+                return Mono.just(resultados);
+            });
+    }
+
     private <T> CheckedFunction1<T, String> serializePayload() {
         return objectMapper::writeValueAsString;
     }
 
-    private Function1<String, Mono<GetQueueUrlResponse>> getQueueUrl() {
-        return queueName -> Mono.fromFuture(sqsClient.getQueueUrl(GetQueueUrlRequest.builder()
-                .queueName(queueName)
-                .build()))
-            .doOnError(throwable -> LOGGER.error("Failed to get queueUrl", throwable));
+    private record Envio(String id, String corpo) {
     }
 
-    private CheckedFunction1<Tuple2<String, GetQueueUrlResponse>, SendMessageRequest> buildMessageRequest() {
-        return t -> SendMessageRequest.builder()
-            .messageBody(t.getT1())
-            .queueUrl(t.getT2().queueUrl())
-            .build();
+    private record EmVoo(String queueName, String receiptHandle, Long recebidoEm, Long expiraEm) {
+        EmVoo withExpiraEm(Long expiraEm) {
+            return new EmVoo(queueName, receiptHandle, recebidoEm, expiraEm);
+        }
     }
 }
@@ -0,0 +1,22 @@
+package io.fiap.revenda.veiculos.driven.client.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.time.Instant;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@JsonSerialize(as = ImmutableMensagemQuarentenaMessage.class)
+@JsonDeserialize(as = ImmutableMensagemQuarentenaMessage.class)
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class MensagemQuarentenaMessage {
+    public abstract String getQueue();
+    public abstract String getMessageId();
+    public abstract String getBody();
+    public abstract Integer getTentativas();
+    public abstract String getErro();
+    @Nullable
+    public abstract String getMensagemErro();
+    public abstract Instant getFalhouEm();
+}
@@ -2,12 +2,15 @@ package io.fiap.revenda.veiculos.driven.client.dto;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
-@JsonSerialize(as = ImmutablePessoaDataCleanupMessage.class)
-@JsonDeserialize(as = ImmutablePessoaDataCleanupMessage.class)
+@JsonSerialize(as = ImmutablePessoaExclusaoDadosMessage.class)
+@JsonDeserialize(as = ImmutablePessoaExclusaoDadosMessage.class)
 @Value.Immutable
 @Value.Style(privateNoargConstructor = true, jdkOnly = true)
 public abstract class PessoaExclusaoDadosMessage {
     public abstract String getId();
+    @Nullable
+    public abstract String getDocumento();
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package io.fiap.revenda.veiculos.driven.crypto;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Data key of a person. {@code versao} changes every time a key is recreated after being shredded, so rows
+ * written under an older key are recognised as anonymised instead of failing decryption.
+ */
+public record ChavePessoa(String id, String versao, SecretKey chave) {
+}
@@ -0,0 +1,160 @@
+package io.fiap.revenda.veiculos.driven.crypto;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import io.fiap.revenda.veiculos.driven.repository.ChavePessoaRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Crypto-shredding of personal data: each person gets an AES-GCM data key stored in its own table under an
+ * HMAC of the person ID, and erasing the person is a single delete of that key. Reads go through a local cache of
+ * existing keys only: a missing key is never cached, and shredding invalidates the local entry. A key deleted by
+ * another instance stays readable here for at most {@code expireAfterWrite}, so keep it short. Writes always read
+ * the key from the table, so new data is never encrypted under a key that was already shredded.
+ */
+@Component
+public class CriptografiaPessoa {
+    public static final String ANONIMIZADO = "ANONIMIZADO";
+
+    private static final String ALGORITMO = "AES/GCM/NoPadding";
+    private static final String ALGORITMO_ID = "HmacSHA256";
+    private static final Integer TAMANHO_IV = 12;
+    private static final Integer TAMANHO_TAG = 128;
+
+    private final ChavePessoaRepository repository;
+    private final AsyncCache<String, ChavePessoa> cache;
+    private final SecureRandom random = new SecureRandom();
+    private final Boolean enabled;
+    private final SecretKeySpec segredo;
+
+    public CriptografiaPessoa(ChavePessoaRepository repository,
+                              MeterRegistry meterRegistry,
+                              @Value("${aws.dynamo.reservas.shredding.enabled:false}") String enabled,
+                              @Value("${aws.dynamo.reservas.shredding.secret:}") String segredo,
+                              @Value("${aws.dynamo.reservas.shredding.cache.maximumSize:10000}") String maximumSize,
+                              @Value("${aws.dynamo.reservas.shredding.cache.expireAfterWrite:30000}") String expireAfterWrite) {
+        this.repository = repository;
+        this.enabled = Boolean.parseBoolean(enabled);
+        if (this.enabled && segredo.isBlank()) {
+            throw new IllegalStateException("aws.dynamo.reservas.shredding.secret is required when shredding is enabled");
+        }
+        this.segredo = segredo.isBlank() ? null : new SecretKeySpec(segredo.getBytes(StandardCharsets.UTF_8), ALGORITMO_ID);
+
+        AsyncCache<String, ChavePessoa> cache = Caffeine.newBuilder()
+            .maximumSize(Long.parseLong(maximumSize))
+            .expireAfterWrite(Duration.ofMillis(Long.parseLong(expireAfterWrite)))
+            .recordStats()
+            .buildAsync();
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry, cache, "pessoas-chaves");
+    }
+
+    public Boolean isEnabled() {
+        return enabled;
+    }
+
+    public String chaveId(String pessoaId) {
+        try {
+            var mac = Mac.getInstance(ALGORITMO_ID);
+            mac.init(segredo);
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(mac.doFinal(pessoaId.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Current key of the person, created on first use or after the previous key was shredded.
+     */
+    public Mono<ChavePessoa> chaveParaEscrita(String pessoaId) {
+        var id = chaveId(pessoaId);
+        return repository.fetchById(id)
+            .doOnNext(chave -> cache.put(id, CompletableFuture.completedFuture(chave)))
+            .switchIfEmpty(Mono.defer(() -> criar(id)));
+    }
+
+    /**
+     * Key used by a stored row, or empty when it was shredded or replaced by a newer version.
+     */
+    public Mono<Optional<ChavePessoa>> chaveParaLeitura(String id, String versao) {
+        return chave(id)
+            .map(chave -> chave.filter(c -> c.versao().equals(versao)));
+    }
+
+    public Mono<Void> fragmentar(String pessoaId) {
+        var id = chaveId(pessoaId);
+        return repository.deleteById(id)
+            .doOnSuccess(v -> cache.synchronous().invalidate(id));
+    }
+
+    public String cifrar(ChavePessoa chave, String valor) {
+        try {
+            var iv = new byte[TAMANHO_IV];
+            random.nextBytes(iv);
+
+            var cipher = Cipher.getInstance(ALGORITMO);
+            cipher.init(Cipher.ENCRYPT_MODE, chave.chave(), new GCMParameterSpec(TAMANHO_TAG, iv));
+            var cifrado = cipher.doFinal(valor.getBytes(StandardCharsets.UTF_8));
+
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + cifrado.length)
+                .put(iv)
+                .put(cifrado)
+                .array());
+        } catch (GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    public String decifrar(ChavePessoa chave, String valor) {
+        try {
+            var conteudo = Base64.getDecoder().decode(valor);
+
+            var cipher = Cipher.getInstance(ALGORITMO);
+            cipher.init(Cipher.DECRYPT_MODE, chave.chave(), new GCMParameterSpec(TAMANHO_TAG, conteudo, 0, TAMANHO_IV));
+            var texto = cipher.doFinal(conteudo, TAMANHO_IV, conteudo.length - TAMANHO_IV);
+
+            return new String(texto, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * A load that completes empty leaves no entry behind, so a key created later is seen on the next read.
+     */
+    private Mono<Optional<ChavePessoa>> chave(String id) {
+        return Mono.fromFuture(() -> cache.get(id, (key, executor) -> repository.fetchById(key).toFuture()), true)
+            .map(Optional::of)
+            .defaultIfEmpty(Optional.empty());
+    }
+
+    private Mono<ChavePessoa> criar(String id) {
+        return Mono.fromCallable(() -> {
+                var generator = KeyGenerator.getInstance("AES");
+                generator.init(256);
+                return new ChavePessoa(id, UUID.randomUUID().toString(), generator.generateKey());
+            })
+            .onErrorMap(GeneralSecurityException.class, TechnicalException::new)
+            .flatMap(repository::save)
+            .doOnNext(chave -> cache.put(id, CompletableFuture.completedFuture(chave)));
+    }
+}
@@ -0,0 +1,21 @@
+package io.fiap.revenda.veiculos.driven.domain;
+
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class AlteracaoVeiculo {
+    public abstract Operacao getOperacao();
+    public abstract String getCampo();
+    @Nullable
+    public abstract String getChave();
+    @Nullable
+    public abstract String getValor();
+
+    public enum Operacao {
+        DEFINIR,
+        REMOVER,
+        TESTAR
+    }
+}
@@ -0,0 +1,16 @@
+package io.fiap.revenda.veiculos.driven.domain;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.time.LocalDate;
+import org.immutables.value.Value;
+
+@JsonSerialize(as = ImmutableBloqueioVeiculo.class)
+@JsonDeserialize(as = ImmutableBloqueioVeiculo.class)
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class BloqueioVeiculo {
+    public abstract String getVeiculoId();
+    public abstract String getReservaId();
+    public abstract LocalDate getExpiraEm();
+}
@@ -0,0 +1,29 @@
+package io.fiap.revenda.veiculos.driven.domain;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Zone of the reservation calendar. The claim condition, the availability filter, the expiry timer and the
+ * DynamoDB TTL all derive "today" and the end of a day from {@link #ZONA}, so a reservation lapses at the same
+ * instant on every path and replica.
+ */
+public final class Calendario {
+    public static final ZoneId ZONA = ZoneOffset.UTC;
+
+    private Calendario() {
+    }
+
+    public static LocalDate hoje() {
+        return LocalDate.now(ZONA);
+    }
+
+    /**
+     * First instant after {@code dia}, when a reservation expiring on that day lapses.
+     */
+    public static Instant fimDoDia(LocalDate dia) {
+        return dia.plusDays(1).atStartOfDay(ZONA).toInstant();
+    }
+}
@@ -0,0 +1,13 @@
+package io.fiap.revenda.veiculos.driven.domain;
+
+import java.util.List;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class Pagina<T> {
+    public abstract List<T> getItens();
+    @Nullable
+    public abstract String getProximaPagina();
+}
@@ -0,0 +1,17 @@
+package io.fiap.revenda.veiculos.driven.domain;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@JsonSerialize(as = ImmutableResultadoEscrita.class)
+@JsonDeserialize(as = ImmutableResultadoEscrita.class)
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class ResultadoEscrita {
+    public abstract String getId();
+    public abstract Boolean getSucesso();
+    @Nullable
+    public abstract String getErro();
+}
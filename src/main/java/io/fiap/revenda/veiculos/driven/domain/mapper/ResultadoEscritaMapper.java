@@ -0,0 +1,9 @@
+package io.fiap.revenda.veiculos.driven.domain.mapper;
+
+import io.fiap.revenda.veiculos.driven.domain.ResultadoEscrita;
+import io.fiap.revenda.veiculos.driver.controller.dto.ResultadoEscritaDTO;
+import org.mapstruct.Mapper;
+
+@Mapper(componentModel = "spring")
+public interface ResultadoEscritaMapper extends BaseMapper<ResultadoEscritaDTO, ResultadoEscrita> {
+}
@@ -0,0 +1,9 @@
+package io.fiap.revenda.veiculos.driven.event;
+
+import java.time.LocalDate;
+
+/**
+ * Published in process when a known reservation lapses, so it is purged ahead of DynamoDB's lazy TTL deletion.
+ */
+public record ReservaExpiradaEvent(String reservaId, String veiculoId, LocalDate expiraEm) {
+}
@@ -18,7 +18,9 @@ public class HttpStatusExceptionConverter {
      */
     public Integer convert(final Throwable throwable) {
         if (throwable instanceof BusinessException) return 422;
+        else if (throwable instanceof BadRequestException) return 400;
         else if (throwable instanceof NotFoundException) return 404;
+        else if (throwable instanceof DuplicatedKeyException) return 409;
         else if (throwable instanceof TechnicalException) return 500;
         else if (throwable instanceof UnavailableException) return 503;
         else if (throwable instanceof IllegalArgumentException) return 422;
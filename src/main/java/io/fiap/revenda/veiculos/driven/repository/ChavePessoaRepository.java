@@ -0,0 +1,75 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import io.fiap.revenda.veiculos.driven.crypto.ChavePessoa;
+import java.util.Map;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+@Repository
+public class ChavePessoaRepository {
+    private static final String TABLE_NAME = "veiculos_pessoas_chaves_tb";
+
+    private final DynamoDbAsyncClient client;
+
+    public ChavePessoaRepository(DynamoDbAsyncClient client) {
+        this.client = client;
+    }
+
+    public Mono<ChavePessoa> fetchById(String id) {
+        var request = GetItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .consistentRead(true)
+            .build();
+
+        return Mono.fromFuture(() -> client.getItem(request))
+            .filter(GetItemResponse::hasItem)
+            .map(GetItemResponse::item)
+            .map(this::convertItem);
+    }
+
+    /**
+     * Stores the key only if the person has none yet; when another writer got there first, its key is returned.
+     */
+    public Mono<ChavePessoa> save(ChavePessoa chave) {
+        var request = PutItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .item(Map.of(
+                "ID", AttributeValue.fromS(chave.id()),
+                "VERSAO", AttributeValue.fromS(chave.versao()),
+                "CHAVE", AttributeValue.fromB(SdkBytes.fromByteArray(chave.chave().getEncoded()))))
+            .conditionExpression("attribute_not_exists(#id)")
+            .expressionAttributeNames(Map.of("#id", "ID"))
+            .build();
+
+        return Mono.fromFuture(() -> client.putItem(request))
+            .thenReturn(chave)
+            .onErrorResume(ConditionalCheckFailedException.class, e -> fetchById(chave.id()));
+    }
+
+    public Mono<Void> deleteById(String id) {
+        var request = DeleteItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .build();
+
+        return Mono.fromFuture(() -> client.deleteItem(request))
+            .then();
+    }
+
+    private ChavePessoa convertItem(Map<String, AttributeValue> item) {
+        return new ChavePessoa(
+            item.get("ID").s(),
+            item.get("VERSAO").s(),
+            new SecretKeySpec(item.get("CHAVE").b().asByteArray(), "AES"));
+    }
+}
@@ -0,0 +1,103 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * Batch calls shared by the repositories. Items DynamoDB leaves unprocessed are retried with
+ * exponential backoff up to {@code aws.dynamo.batch.maxRetries} times.
+ */
+@Component
+public class DynamoBatchOperations {
+
+    public static final int WRITE_BATCH_SIZE = 25;
+    public static final int GET_BATCH_SIZE = 100;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamoBatchOperations.class);
+
+    private final DynamoDbAsyncClient client;
+    private final Integer concurrency;
+    private final Integer maxRetries;
+    private final Duration backoff;
+
+    public DynamoBatchOperations(DynamoDbAsyncClient client,
+                                 @Value("${aws.dynamo.batch.concurrency:4}") String concurrency,
+                                 @Value("${aws.dynamo.batch.maxRetries:5}") String maxRetries,
+                                 @Value("${aws.dynamo.batch.backoff:50}") String backoff) {
+        this.client = client;
+        this.concurrency = Integer.parseInt(concurrency);
+        this.maxRetries = Integer.parseInt(maxRetries);
+        this.backoff = Duration.ofMillis(Long.parseLong(backoff));
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sends up to {@link #WRITE_BATCH_SIZE} write requests and emits the ones still unprocessed after all retries.
+     */
+    public Mono<List<WriteRequest>> write(String tableName, List<WriteRequest> requests) {
+        return write(tableName, requests, 0);
+    }
+
+    private Mono<List<WriteRequest>> write(String tableName, List<WriteRequest> requests, int tentativa) {
+        var request = BatchWriteItemRequest.builder()
+            .requestItems(Map.of(tableName, requests))
+            .build();
+
+        return Mono.fromFuture(() -> client.batchWriteItem(request))
+            .flatMap(response -> {
+                var pendentes = response.unprocessedItems().getOrDefault(tableName, List.of());
+                if (pendentes.isEmpty() || tentativa >= maxRetries) {
+                    return Mono.just(pendentes);
+                }
+                LOGGER.debug("retrying {} unprocessed items on {}", pendentes.size(), tableName);
+                return Mono.delay(backoff.multipliedBy(1L << tentativa))
+                    .then(write(tableName, pendentes, tentativa + 1));
+            });
+    }
+
+    /**
+     * Reads up to {@link #GET_BATCH_SIZE} keys, emitting items as each response arrives. Keys still
+     * unprocessed after all retries fail the flux with {@link UnavailableException}.
+     */
+    public Flux<Map<String, AttributeValue>> get(String tableName, List<Map<String, AttributeValue>> keys) {
+        return get(tableName, KeysAndAttributes.builder().keys(keys).build(), 0);
+    }
+
+    private Flux<Map<String, AttributeValue>> get(String tableName, KeysAndAttributes keys, int tentativa) {
+        var request = BatchGetItemRequest.builder()
+            .requestItems(Map.of(tableName, keys))
+            .build();
+
+        return Mono.fromFuture(() -> client.batchGetItem(request))
+            .flatMapMany(response -> {
+                var itens = Flux.fromIterable(response.responses().getOrDefault(tableName, List.of()));
+                var pendentes = response.unprocessedKeys().get(tableName);
+                if (pendentes == null || !pendentes.hasKeys() || pendentes.keys().isEmpty()) {
+                    return itens;
+                } else if (tentativa >= maxRetries) {
+                    return itens.concatWith(Flux.error(new UnavailableException(
+                        String.format("%s chaves não processadas em %s.", pendentes.keys().size(), tableName))));
+                }
+                LOGGER.debug("retrying {} unprocessed keys on {}", pendentes.keys().size(), tableName);
+                return itens.concatWith(Mono.delay(backoff.multipliedBy(1L << tentativa))
+                    .thenMany(Flux.defer(() -> get(tableName, pendentes, tentativa + 1))));
+            });
+    }
+}
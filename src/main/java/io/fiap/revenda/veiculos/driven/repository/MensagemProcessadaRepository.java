@@ -0,0 +1,95 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+/**
+ * Processed-message registry with DynamoDB TTL on {@code EXPIRA_EM_TTL}. A message is first claimed for
+ * {@code lease}; once handled the claim becomes {@code PROCESSADA} and is kept for the retention period.
+ */
+@Repository
+public class MensagemProcessadaRepository {
+    private static final String TABLE_NAME = "veiculos_mensagens_processadas_tb";
+    private static final String PROCESSANDO = "PROCESSANDO";
+    private static final String PROCESSADA = "PROCESSADA";
+
+    private final DynamoDbAsyncClient client;
+
+    public MensagemProcessadaRepository(DynamoDbAsyncClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Claims the message unless another delivery already processed it or still holds an unexpired claim.
+     * Expired items are claimable even before DynamoDB removes them.
+     */
+    public Mono<Situacao> iniciar(String id, Duration lease) {
+        var agora = Instant.now().getEpochSecond();
+        var request = PutItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .item(Map.of(
+                "ID", AttributeValue.fromS(id),
+                "ESTADO", AttributeValue.fromS(PROCESSANDO),
+                "EXPIRA_EM_TTL", AttributeValue.fromN(String.valueOf(agora + lease.toSeconds()))))
+            .conditionExpression("attribute_not_exists(#id) OR #expira < :agora")
+            .expressionAttributeNames(Map.of("#id", "ID", "#expira", "EXPIRA_EM_TTL"))
+            .expressionAttributeValues(Map.of(":agora", AttributeValue.fromN(String.valueOf(agora))))
+            .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+            .build();
+
+        return Mono.fromFuture(() -> client.putItem(request))
+            .thenReturn(Situacao.NOVA)
+            .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(
+                e.hasItem() && e.item().containsKey("ESTADO") && PROCESSADA.equals(e.item().get("ESTADO").s())
+                    ? Situacao.PROCESSADA
+                    : Situacao.EM_ANDAMENTO));
+    }
+
+    public Mono<Void> concluir(String id, Duration retencao) {
+        var request = UpdateItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .updateExpression("SET #estado = :estado, #expira = :expira")
+            .expressionAttributeNames(Map.of("#estado", "ESTADO", "#expira", "EXPIRA_EM_TTL"))
+            .expressionAttributeValues(Map.of(
+                ":estado", AttributeValue.fromS(PROCESSADA),
+                ":expira", AttributeValue.fromN(String.valueOf(Instant.now().plus(retencao).getEpochSecond()))))
+            .build();
+
+        return Mono.fromFuture(() -> client.updateItem(request))
+            .then();
+    }
+
+    /**
+     * Releases a claim whose processing failed, so the next delivery runs again.
+     */
+    public Mono<Void> cancelar(String id) {
+        var request = DeleteItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .conditionExpression("#estado = :estado")
+            .expressionAttributeNames(Map.of("#estado", "ESTADO"))
+            .expressionAttributeValues(Map.of(":estado", AttributeValue.fromS(PROCESSANDO)))
+            .build();
+
+        return Mono.fromFuture(() -> client.deleteItem(request))
+            .then()
+            .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.empty());
+    }
+
+    public enum Situacao {
+        NOVA,
+        PROCESSADA,
+        EM_ANDAMENTO
+    }
+}
@@ -0,0 +1,79 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.exception.BadRequestException;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Converts a DynamoDB {@code LastEvaluatedKey} into an opaque continuation token and back.
+ */
+@Component
+public class PaginaTokenConverter {
+
+    private static final TypeReference<Map<String, Map<String, String>>> CHAVE_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+
+    public PaginaTokenConverter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public String encode(Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) {
+            return null;
+        }
+
+        var chave = lastEvaluatedKey.entrySet()
+            .stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> fromAttributeValue(e.getValue())));
+
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(chave));
+        } catch (JsonProcessingException e) {
+            throw new TechnicalException("Falha ao gerar token de paginação.", e);
+        }
+    }
+
+    public Map<String, AttributeValue> decode(String token) {
+        if (!StringUtils.hasText(token)) {
+            return null;
+        }
+
+        try {
+            Map<String, Map<String, String>> chave = objectMapper.readValue(Base64.getUrlDecoder().decode(token), CHAVE_TYPE);
+            return chave.entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> toAttributeValue(e.getValue())));
+        } catch (IOException | RuntimeException e) {
+            throw new BadRequestException("Token de paginação inválido.", e);
+        }
+    }
+
+    private Map<String, String> fromAttributeValue(AttributeValue value) {
+        if (value.s() != null) {
+            return Map.of("S", value.s());
+        } else if (value.n() != null) {
+            return Map.of("N", value.n());
+        }
+        throw new TechnicalException("Tipo de atributo não suportado na chave de paginação.");
+    }
+
+    private AttributeValue toAttributeValue(Map<String, String> value) {
+        if (value.containsKey("S")) {
+            return AttributeValue.fromS(value.get("S"));
+        } else if (value.containsKey("N")) {
+            return AttributeValue.fromN(value.get("N"));
+        }
+        throw new IllegalArgumentException("Tipo de atributo não suportado na chave de paginação.");
+    }
+}
@@ -1,97 +1,682 @@
 package io.fiap.revenda.veiculos.driven.repository;
 
+import io.fiap.revenda.veiculos.driven.crypto.ChavePessoa;
+import io.fiap.revenda.veiculos.driven.crypto.CriptografiaPessoa;
+import io.fiap.revenda.veiculos.driven.domain.BloqueioVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.Calendario;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableBloqueioVeiculo;
 import io.fiap.revenda.veiculos.driven.domain.ImmutableDocumento;
 import io.fiap.revenda.veiculos.driven.domain.ImmutablePessoa;
 import io.fiap.revenda.veiculos.driven.domain.ImmutableReserva;
 import io.fiap.revenda.veiculos.driven.domain.Reserva;
+import io.fiap.revenda.veiculos.driven.exception.DuplicatedKeyException;
+import io.fiap.revenda.veiculos.driven.exception.NotFoundException;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
-import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
-import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
 @Repository
 public class ReservaRepository {
     private static final String TABLE_NAME = "veiculos_reservas_tb";
+    private static final String BLOQUEIOS_TABLE_NAME = "veiculos_reservas_bloqueios_tb";
+    private static final String VEICULOS_TABLE_NAME = "veiculos_tb";
+    private static final String CONDICAO_BLOQUEIO = "attribute_not_exists(#veiculo) OR #expira < :hoje";
+    private static final int TRANSACT_SIZE = 100;
 
     private final DynamoDbAsyncClient client;
+    private final DynamoBatchOperations batchOperations;
+    private final CriptografiaPessoa criptografia;
+    private final Integer scanSegments;
+    private final Integer scanPageSize;
 
-    public ReservaRepository(DynamoDbAsyncClient client) {
+    public ReservaRepository(DynamoDbAsyncClient client,
+                             DynamoBatchOperations batchOperations,
+                             CriptografiaPessoa criptografia,
+                             @Value("${aws.dynamo.reservas.scan.segments:4}") String scanSegments,
+                             @Value("${aws.dynamo.reservas.scan.pageSize:500}") String scanPageSize) {
         this.client = client;
+        this.batchOperations = batchOperations;
+        this.criptografia = criptografia;
+        this.scanSegments = Integer.parseInt(scanSegments);
+        this.scanPageSize = Integer.parseInt(scanPageSize);
     }
 
-    public Mono<Void> save(Reserva reserva) {
-        var atributos = new HashMap<String, AttributeValueUpdate>();
-        atributos.put("CODIGO",
-            AttributeValueUpdate.builder().value(v -> v.s(UUID.randomUUID().toString()).build()).build());
-        atributos.put("VEICULO_ID",
-            AttributeValueUpdate.builder().value(v -> v.s(reserva.getVeiculoId()).build()).build());
-        atributos.put("VEICULO_PLACA",
-            AttributeValueUpdate.builder().value(v -> v.s(reserva.getVeiculoPlaca()).build()).build());
-        atributos.put("VEICULO_RENAVAM",
-            AttributeValueUpdate.builder().value(v -> v.s(reserva.getVeiculoRenavam()).build()).build());
-        atributos.put("RESERVADO_EM",
-            AttributeValueUpdate.builder().value(v -> v.s(String.valueOf(reserva.getReservadoEm().toEpochDay()))).build());
-        atributos.put("EXPIRA_EM",
-            AttributeValueUpdate.builder().value(v -> v.s(String.valueOf(reserva.getExpiraEm().toEpochDay()))).build());
-        atributos.put("EXPIRA_EM_TTL",
-            AttributeValueUpdate.builder().value(v -> v.s(String.valueOf(reserva.getExpiraEm().toEpochDay()))).build());
+    /**
+     * The reservation row, the vehicle claim and the {@code RESERVADO_ATE} marker on the vehicle item are written in
+     * one transaction.
+     * <p>
+     * With crypto-shredding enabled the person ID and document number are stored encrypted under the person's
+     * data key, and the plaintext lookup attributes {@code PESSOA_ID} and {@code DOCUMENTO_VALOR} are not written.
+     */
+    public Mono<Reserva> save(Reserva reserva) {
+        if (!criptografia.isEnabled()) {
+            return save(reserva, null);
+        }
+        return criptografia.chaveParaEscrita(reserva.getPessoa().getId())
+            .flatMap(chave -> save(reserva, chave));
+    }
+
+    private Mono<Reserva> save(Reserva reserva, ChavePessoa chave) {
+        var id = UUID.randomUUID().toString();
+        var codigo = UUID.randomUUID().toString();
 
+        var item = new HashMap<String, AttributeValue>();
+        item.put("ID", AttributeValue.fromS(id));
+        item.put("CODIGO", AttributeValue.fromS(codigo));
+        item.put("VEICULO_ID", AttributeValue.fromS(reserva.getVeiculoId()));
+        item.put("VEICULO_PLACA", AttributeValue.fromS(reserva.getVeiculoPlaca()));
+        item.put("VEICULO_RENAVAM", AttributeValue.fromS(reserva.getVeiculoRenavam()));
+        item.put("RESERVADO_EM", AttributeValue.fromS(String.valueOf(reserva.getReservadoEm().toEpochDay())));
+        item.put("EXPIRA_EM", AttributeValue.fromS(String.valueOf(reserva.getExpiraEm().toEpochDay())));
+        item.put("EXPIRA_EM_TTL", AttributeValue.fromN(convertTtl(reserva.getExpiraEm())));
+
+        var pessoaId = reserva.getPessoa().getId();
+        var documentoValor = reserva.getPessoa().getDocumento().getValor();
 
         var documento = new HashMap<String, AttributeValue>();
-        documento.put("VALOR", AttributeValue.builder().s(reserva.getPessoa().getDocumento().getValor()).build());
+        documento.put("VALOR", AttributeValue.fromS(chave == null ? documentoValor : criptografia.cifrar(chave, documentoValor)));
         documento.put("TIPO", AttributeValue.builder().s(reserva.getPessoa().getDocumento().getTipo()).build());
 
         var pessoa = new HashMap<String, AttributeValue>();
-        pessoa.put("ID", AttributeValue.builder().s(reserva.getPessoa().getId()).build());
+        pessoa.put("ID", AttributeValue.fromS(chave == null ? pessoaId : criptografia.cifrar(chave, pessoaId)));
         pessoa.put("DOCUMENTO", AttributeValue.builder().m(documento).build());
 
-        atributos.put("PESSOA",
-            AttributeValueUpdate.builder().value(v -> v.m(pessoa).build()).build());
+        item.put("PESSOA", AttributeValue.fromM(pessoa));
+        if (chave == null) {
+            item.put("PESSOA_ID", AttributeValue.fromS(pessoaId));
+            item.put("DOCUMENTO_VALOR", AttributeValue.fromS(documentoValor));
+        } else {
+            item.put("CHAVE_ID", AttributeValue.fromS(chave.id()));
+            item.put("CHAVE_VERSAO", AttributeValue.fromS(chave.versao()));
+        }
+
+        var request = TransactWriteItemsRequest.builder()
+            .transactItems(
+                TransactWriteItem.builder()
+                    .put(bloqueio(reserva.getVeiculoId(), id, reserva.getExpiraEm()))
+                    .build(),
+                TransactWriteItem.builder()
+                    .put(put -> put.tableName(TABLE_NAME)
+                        .item(item)
+                        .conditionExpression("attribute_not_exists(#id)")
+                        .expressionAttributeNames(Map.of("#id", "ID")))
+                    .build(),
+                TransactWriteItem.builder()
+                    .update(marcarReservado(reserva.getVeiculoId(), id, reserva.getExpiraEm()))
+                    .build())
+            .build();
+
+        return Mono.fromFuture(() -> client.transactWriteItems(request))
+            .<Reserva>thenReturn(ImmutableReserva.copyOf(reserva)
+                .withId(id)
+                .withCodigo(codigo))
+            .onErrorMap(TransactionCanceledException.class, e -> convertCancelamento(e, reserva.getVeiculoId()));
+    }
+
+    /**
+     * Claim on the vehicle, granted only while no other reservation holds an unexpired claim.
+     */
+    private Put bloqueio(String veiculoId, String reservaId, LocalDate expiraEm) {
+        return Put.builder()
+            .tableName(BLOQUEIOS_TABLE_NAME)
+            .item(convertBloqueio(veiculoId, reservaId, expiraEm))
+            .conditionExpression(CONDICAO_BLOQUEIO)
+            .expressionAttributeNames(Map.of("#veiculo", "VEICULO_ID", "#expira", "EXPIRA_EM"))
+            .expressionAttributeValues(Map.of(":hoje", AttributeValue.fromN(String.valueOf(Calendario.hoje().toEpochDay()))))
+            .build();
+    }
+
+    /**
+     * Denormalised reservation state on the vehicle item, read by {@code VeiculoRepository.fetch(false)}.
+     */
+    private Update marcarReservado(String veiculoId, String reservaId, LocalDate expiraEm) {
+        return Update.builder()
+            .tableName(VEICULOS_TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(veiculoId)))
+            .updateExpression("SET #reservadoAte = :expira, #reserva = :reserva")
+            .conditionExpression("attribute_exists(#id)")
+            .expressionAttributeNames(Map.of("#id", "ID", "#reservadoAte", "RESERVADO_ATE", "#reserva", "RESERVA_ID"))
+            .expressionAttributeValues(Map.of(
+                ":expira", AttributeValue.fromN(String.valueOf(expiraEm.toEpochDay())),
+                ":reserva", AttributeValue.fromS(reservaId)))
+            .build();
+    }
+
+    private Map<String, AttributeValue> convertBloqueio(String veiculoId, String reservaId, LocalDate expiraEm) {
+        return Map.of(
+            "VEICULO_ID", AttributeValue.fromS(veiculoId),
+            "RESERVA_ID", AttributeValue.fromS(reservaId),
+            "EXPIRA_EM", AttributeValue.fromN(String.valueOf(expiraEm.toEpochDay())),
+            "EXPIRA_EM_TTL", AttributeValue.fromN(convertTtl(expiraEm)));
+    }
 
-        var request = UpdateItemRequest.builder()
-            .attributeUpdates(atributos)
+    /**
+     * DynamoDB TTL value, in epoch seconds, for the end of the expiry day.
+     */
+    private String convertTtl(LocalDate expiraEm) {
+        return String.valueOf(Calendario.fimDoDia(expiraEm).getEpochSecond());
+    }
+
+    private RuntimeException convertCancelamento(TransactionCanceledException e, String veiculoId) {
+        var motivos = e.hasCancellationReasons() ? e.cancellationReasons() : List.<CancellationReason>of();
+        if (!motivos.isEmpty() && "ConditionalCheckFailed".equals(motivos.get(0).code())) {
+            return new DuplicatedKeyException(String.format("Veículo [%s] já está reservado.", veiculoId), e);
+        }
+        if (motivos.size() > 2 && "ConditionalCheckFailed".equals(motivos.get(2).code())) {
+            return new NotFoundException(String.format("Veículo [%s] não encontrado.", veiculoId), e);
+        }
+        if (motivos.stream().anyMatch(motivo -> "TransactionConflict".equals(motivo.code()))) {
+            return new UnavailableException(String.format("Reserva do veículo [%s] em conflito, tente novamente.",
+                veiculoId));
+        }
+        return e;
+    }
+
+    /**
+     * Deletes the reservation together with its vehicle claim and {@code RESERVADO_ATE} marker, see
+     * {@link #excluir(List)}. Deleting a missing reservation does nothing.
+     */
+    public Mono<Void> deleteById(String id) {
+        var request = GetItemRequest.builder()
             .tableName(TABLE_NAME)
-            .key(Map.of("ID", AttributeValue.fromS(UUID.randomUUID().toString())))
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .projectionExpression("#veiculo")
+            .expressionAttributeNames(Map.of("#veiculo", "VEICULO_ID"))
+            .consistentRead(true)
             .build();
 
-        return Mono.fromFuture(client.updateItem(request))
+        return Mono.fromFuture(() -> client.getItem(request))
+            .filter(response -> response.hasItem() && response.item().containsKey("VEICULO_ID"))
+            .flatMap(response -> excluir(List.of(new Exclusao(id, response.item().get("VEICULO_ID").s()))));
+    }
+
+    public Mono<Void> deleteAll(Collection<Reserva> reservas) {
+        return excluir(reservas.stream()
+            .map(reserva -> new Exclusao(reserva.getId(), reserva.getVeiculoId()))
+            .toList());
+    }
+
+    /**
+     * Removes each reservation row and, when the reservation still holds them, the vehicle claim and the
+     * {@code RESERVADO_ATE} marker, all in TransactWriteItems of up to {@code TRANSACT_SIZE} items, so a failure
+     * never leaves a claim behind a deleted row. Current holders are read first and the claim and marker writes
+     * are conditional on them, so a reservation taking the vehicle in between cancels the transaction with
+     * {@link UnavailableException}; row deletes are unconditional, so the whole operation can be retried.
+     */
+    private Mono<Void> excluir(List<Exclusao> exclusoes) {
+        return Flux.fromIterable(exclusoes)
+            .flatMapSequential(this::planejarExclusao, batchOperations.getConcurrency())
+            .collectList()
+            .flatMapMany(planos -> Flux.fromIterable(agrupar(planos)))
+            .flatMap(itens -> Mono.fromFuture(() -> client.transactWriteItems(TransactWriteItemsRequest.builder()
+                        .transactItems(itens)
+                        .build()))
+                    .onErrorMap(TransactionCanceledException.class, e -> isCancelamentoTransitorio(e)
+                        ? new UnavailableException("Reservas alteradas durante a exclusão, tente novamente.", e)
+                        : e),
+                batchOperations.getConcurrency())
             .then();
     }
 
-    public Mono<Void> deleteById(String id) {
-        var key = new HashMap<String, AttributeValue>();
-        key.put("ID", AttributeValue.fromS(id));
+    private Mono<List<TransactWriteItem>> planejarExclusao(Exclusao exclusao) {
+        var veiculoKey = Map.of("ID", AttributeValue.fromS(exclusao.veiculoId()));
+        var bloqueioKey = Map.of("VEICULO_ID", AttributeValue.fromS(exclusao.veiculoId()));
 
-        var request = DeleteItemRequest.builder()
+        return Mono.zip(lerReservaId(BLOQUEIOS_TABLE_NAME, bloqueioKey), lerReservaId(VEICULOS_TABLE_NAME, veiculoKey))
+            .map(detentores -> {
+                var itens = new ArrayList<TransactWriteItem>();
+                itens.add(TransactWriteItem.builder()
+                    .delete(delete -> delete.tableName(TABLE_NAME)
+                        .key(Map.of("ID", AttributeValue.fromS(exclusao.reservaId()))))
+                    .build());
+                if (detentores.getT1().filter(exclusao.reservaId()::equals).isPresent()) {
+                    itens.add(TransactWriteItem.builder()
+                        .delete(liberarBloqueio(exclusao.veiculoId(), exclusao.reservaId()))
+                        .build());
+                }
+                if (detentores.getT2().filter(exclusao.reservaId()::equals).isPresent()) {
+                    itens.add(TransactWriteItem.builder()
+                        .update(desmarcarReservado(exclusao.veiculoId(), exclusao.reservaId()))
+                        .build());
+                }
+                return List.copyOf(itens);
+            });
+    }
+
+    /**
+     * {@code RESERVA_ID} currently stored on the claim or vehicle item with the given key.
+     */
+    private Mono<Optional<String>> lerReservaId(String tableName, Map<String, AttributeValue> key) {
+        var request = GetItemRequest.builder()
+            .tableName(tableName)
             .key(key)
+            .projectionExpression("#reserva")
+            .expressionAttributeNames(Map.of("#reserva", "RESERVA_ID"))
+            .consistentRead(true)
+            .build();
+
+        return Mono.fromFuture(() -> client.getItem(request))
+            .map(response -> Optional.ofNullable(response.hasItem() ? response.item().get("RESERVA_ID") : null)
+                .map(AttributeValue::s));
+    }
+
+    /**
+     * Packs the writes of each reservation into as few transactions as possible without splitting a reservation.
+     */
+    private List<List<TransactWriteItem>> agrupar(List<List<TransactWriteItem>> planos) {
+        var transacoes = new ArrayList<List<TransactWriteItem>>();
+        var atual = new ArrayList<TransactWriteItem>();
+        for (var plano : planos) {
+            if (atual.size() + plano.size() > TRANSACT_SIZE) {
+                transacoes.add(atual);
+                atual = new ArrayList<>();
+            }
+            atual.addAll(plano);
+        }
+        if (!atual.isEmpty()) {
+            transacoes.add(atual);
+        }
+        return transacoes;
+    }
+
+    private Delete liberarBloqueio(String veiculoId, String reservaId) {
+        return Delete.builder()
+            .tableName(BLOQUEIOS_TABLE_NAME)
+            .key(Map.of("VEICULO_ID", AttributeValue.fromS(veiculoId)))
+            .conditionExpression("#reserva = :reserva")
+            .expressionAttributeNames(Map.of("#reserva", "RESERVA_ID"))
+            .expressionAttributeValues(Map.of(":reserva", AttributeValue.fromS(reservaId)))
+            .build();
+    }
+
+    private Update desmarcarReservado(String veiculoId, String reservaId) {
+        return Update.builder()
+            .tableName(VEICULOS_TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(veiculoId)))
+            .updateExpression("REMOVE #reservadoAte, #reserva")
+            .conditionExpression("#reserva = :reserva")
+            .expressionAttributeNames(Map.of("#reservadoAte", "RESERVADO_ATE", "#reserva", "RESERVA_ID"))
+            .expressionAttributeValues(Map.of(":reserva", AttributeValue.fromS(reservaId)))
+            .build();
+    }
+
+    private Boolean isCancelamentoTransitorio(TransactionCanceledException e) {
+        return e.hasCancellationReasons() && e.cancellationReasons()
+            .stream()
+            .anyMatch(motivo -> "ConditionalCheckFailed".equals(motivo.code())
+                || "TransactionConflict".equals(motivo.code()));
+    }
+
+    /**
+     * Unexpired vehicle claims, one per reserved vehicle.
+     */
+    public Flux<BloqueioVeiculo> fetchBloqueios() {
+        var request = ScanRequest.builder()
+            .tableName(BLOQUEIOS_TABLE_NAME)
+            .filterExpression("#expira >= :hoje")
+            .expressionAttributeNames(Map.of("#expira", "EXPIRA_EM"))
+            .expressionAttributeValues(Map.of(":hoje", AttributeValue.fromN(String.valueOf(Calendario.hoje().toEpochDay()))))
+            .build();
+
+        return Flux.from(client.scanPaginator(request).items())
+            .map(item -> ImmutableBloqueioVeiculo.builder()
+                .veiculoId(item.get("VEICULO_ID").s())
+                .reservaId(item.get("RESERVA_ID").s())
+                .expiraEm(LocalDate.ofEpochDay(Long.parseLong(item.get("EXPIRA_EM").n())))
+                .build());
+    }
+
+    /**
+     * One-off creation of the vehicle claims for reservations written before claims existed.
+     *
+     * @return number of claims created
+     */
+    public Mono<Long> backfillBloqueios() {
+        var request = ScanRequest.builder()
             .tableName(TABLE_NAME)
+            .projectionExpression("#id, #veiculo, #expira")
+            .expressionAttributeNames(Map.of("#id", "ID", "#veiculo", "VEICULO_ID", "#expira", "EXPIRA_EM"))
             .build();
 
-        return Mono.fromFuture(client.deleteItem(request))
-            .then();
+        return Flux.from(client.scanPaginator(request).items())
+            .filter(item -> !LocalDate.ofEpochDay(Long.parseLong(item.get("EXPIRA_EM").s())).isBefore(Calendario.hoje()))
+            .flatMap(item -> Mono.fromFuture(() -> client.putItem(PutItemRequest.builder()
+                        .tableName(BLOQUEIOS_TABLE_NAME)
+                        .item(convertBloqueio(item.get("VEICULO_ID").s(), item.get("ID").s(),
+                            LocalDate.ofEpochDay(Long.parseLong(item.get("EXPIRA_EM").s()))))
+                        .conditionExpression(CONDICAO_BLOQUEIO)
+                        .expressionAttributeNames(Map.of("#veiculo", "VEICULO_ID", "#expira", "EXPIRA_EM"))
+                        .expressionAttributeValues(Map.of(
+                            ":hoje", AttributeValue.fromN(String.valueOf(Calendario.hoje().toEpochDay()))))
+                        .build()))
+                    .thenReturn(1L)
+                    .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(0L)),
+                batchOperations.getConcurrency())
+            .reduce(0L, Long::sum);
+    }
+
+    /**
+     * One-off copy of the unexpired vehicle claims into the {@code RESERVADO_ATE} marker of the vehicle items.
+     *
+     * @return number of marked vehicles
+     */
+    public Mono<Long> backfillReservadoAte() {
+        return fetchBloqueios()
+            .flatMap(bloqueio -> {
+                    var update = marcarReservado(bloqueio.getVeiculoId(), bloqueio.getReservaId(), bloqueio.getExpiraEm());
+                    return Mono.fromFuture(() -> client.updateItem(UpdateItemRequest.builder()
+                            .tableName(update.tableName())
+                            .key(update.key())
+                            .updateExpression(update.updateExpression())
+                            .conditionExpression(update.conditionExpression())
+                            .expressionAttributeNames(update.expressionAttributeNames())
+                            .expressionAttributeValues(update.expressionAttributeValues())
+                            .build()))
+                        .thenReturn(1L)
+                        .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(0L));
+                },
+                batchOperations.getConcurrency())
+            .reduce(0L, Long::sum);
     }
 
+    /**
+     * Parallel scan over {@code scanSegments} segments; each segment pages through the SDK paginator on demand.
+     */
     public Flux<Reserva> fetch() {
-        return Mono.fromFuture(client.scan(ScanRequest.builder().tableName(TABLE_NAME).build()))
-            .filter(ScanResponse::hasItems)
-            .map(response -> response.items()
-                .stream()
-                .map(this::convertItem)
-                .toList()
-            )
-            .flatMapIterable(l -> l);
+        return Flux.range(0, scanSegments)
+            .flatMap(this::scanSegment, scanSegments);
+    }
+
+    private Flux<Reserva> scanSegment(Integer segment) {
+        var request = ScanRequest.builder()
+            .tableName(TABLE_NAME)
+            .limit(scanPageSize);
+
+        if (scanSegments > 1) {
+            request.segment(segment)
+                .totalSegments(scanSegments);
+        }
+
+        return Flux.from(client.scanPaginator(request.build()).items())
+            .flatMapSequential(this::convertItem);
+    }
+
+    public Flux<Reserva> fetchByPessoaId(String pessoaId) {
+        var request = QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .indexName("PessoaIdIndex")
+            .keyConditionExpression("#pessoa = :pessoa")
+            .expressionAttributeNames(Map.of("#pessoa", "PESSOA_ID"))
+            .expressionAttributeValues(Map.of(":pessoa", AttributeValue.fromS(pessoaId)))
+            .build();
+
+        return Flux.from(client.queryPaginator(request).items())
+            .flatMapSequential(this::convertItem);
+    }
+
+    public Flux<Reserva> fetchByDocumento(String documento) {
+        var request = QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .indexName("DocumentoValorIndex")
+            .keyConditionExpression("#documento = :documento")
+            .expressionAttributeNames(Map.of("#documento", "DOCUMENTO_VALOR"))
+            .expressionAttributeValues(Map.of(":documento", AttributeValue.fromS(documento)))
+            .build();
+
+        return Flux.from(client.queryPaginator(request).items())
+            .flatMapSequential(this::convertItem);
+    }
+
+    /**
+     * Plaintext reservations of the person written before {@code PESSOA_ID} and {@code DOCUMENTO_VALOR} were copied
+     * to the top level, so missing from {@code PessoaIdIndex} and {@code DocumentoValorIndex}. Found with a filtered
+     * full-table scan.
+     */
+    public Flux<Reserva> fetchLegadoByPessoa(String pessoaId, String documento) {
+        var nomes = new HashMap<String, String>();
+        nomes.put("#pessoaId", "PESSOA_ID");
+        nomes.put("#chaveId", "CHAVE_ID");
+        nomes.put("#pessoa", "PESSOA");
+        nomes.put("#id", "ID");
+
+        var valores = new HashMap<String, AttributeValue>();
+        valores.put(":pessoa", AttributeValue.fromS(pessoaId));
+
+        var filtro = new StringBuilder("attribute_not_exists(#pessoaId) AND attribute_not_exists(#chaveId)");
+        if (documento == null) {
+            filtro.append(" AND #pessoa.#id = :pessoa");
+        } else {
+            filtro.append(" AND (#pessoa.#id = :pessoa OR #pessoa.#documento.#valor = :documento)");
+            nomes.put("#documento", "DOCUMENTO");
+            nomes.put("#valor", "VALOR");
+            valores.put(":documento", AttributeValue.fromS(documento));
+        }
+
+        var request = ScanRequest.builder()
+            .tableName(TABLE_NAME)
+            .filterExpression(filtro.toString())
+            .expressionAttributeNames(nomes)
+            .expressionAttributeValues(valores)
+            .limit(scanPageSize)
+            .build();
+
+        return Flux.from(client.scanPaginator(request).items())
+            .flatMapSequential(this::convertItem);
+    }
+
+    /**
+     * Whether the vehicle has an unexpired reservation, read from the reservation rows through
+     * {@code VeiculoIdIndex} rather than from its claim, so reservations written before claims existed count too.
+     */
+    public Mono<Boolean> existeReservaAtiva(String veiculoId) {
+        var request = QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .indexName("VeiculoIdIndex")
+            .keyConditionExpression("#veiculo = :veiculo")
+            .projectionExpression("#expira")
+            .expressionAttributeNames(Map.of("#veiculo", "VEICULO_ID", "#expira", "EXPIRA_EM"))
+            .expressionAttributeValues(Map.of(":veiculo", AttributeValue.fromS(veiculoId)))
+            .build();
+
+        return Flux.from(client.queryPaginator(request).items())
+            .any(item -> !LocalDate.ofEpochDay(Long.parseLong(item.get("EXPIRA_EM").s())).isBefore(Calendario.hoje()));
+    }
+
+    /**
+     * One-off rewrite of {@code EXPIRA_EM_TTL} from the string epoch day written by older versions to the number of
+     * epoch seconds DynamoDB TTL expects.
+     *
+     * @return number of updated reservations
+     */
+    public Mono<Long> backfillTtl() {
+        var request = ScanRequest.builder()
+            .tableName(TABLE_NAME)
+            .filterExpression("attribute_type(#ttl, :tipo)")
+            .projectionExpression("#id, #expira")
+            .expressionAttributeNames(Map.of("#id", "ID", "#ttl", "EXPIRA_EM_TTL", "#expira", "EXPIRA_EM"))
+            .expressionAttributeValues(Map.of(":tipo", AttributeValue.fromS("S")))
+            .build();
+
+        return Flux.from(client.scanPaginator(request).items())
+            .flatMap(item -> Mono.fromFuture(() -> client.updateItem(UpdateItemRequest.builder()
+                        .tableName(TABLE_NAME)
+                        .key(Map.of("ID", item.get("ID")))
+                        .updateExpression("SET #ttl = :ttl")
+                        .conditionExpression("attribute_type(#ttl, :tipo)")
+                        .expressionAttributeNames(Map.of("#ttl", "EXPIRA_EM_TTL"))
+                        .expressionAttributeValues(Map.of(
+                            ":ttl", AttributeValue.fromN(convertTtl(
+                                LocalDate.ofEpochDay(Long.parseLong(item.get("EXPIRA_EM").s())))),
+                            ":tipo", AttributeValue.fromS("S")))
+                        .build()))
+                    .thenReturn(1L)
+                    .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(0L)),
+                batchOperations.getConcurrency())
+            .reduce(0L, Long::sum);
+    }
+
+    /**
+     * One-off copy of {@code PESSOA.ID} and {@code PESSOA.DOCUMENTO.VALOR} into the top-level attributes
+     * indexed by {@code PessoaIdIndex} and {@code DocumentoValorIndex}.
+     *
+     * @return number of updated reservations
+     */
+    public Mono<Long> backfillPessoa() {
+        var request = ScanRequest.builder()
+            .tableName(TABLE_NAME)
+            .filterExpression("attribute_not_exists(#pessoaId) AND attribute_not_exists(#chaveId)")
+            .projectionExpression("#id")
+            .expressionAttributeNames(Map.of("#id", "ID", "#pessoaId", "PESSOA_ID", "#chaveId", "CHAVE_ID"))
+            .build();
+
+        return Flux.from(client.scanPaginator(request).items())
+            .flatMap(item -> Mono.fromFuture(() -> client.updateItem(UpdateItemRequest.builder()
+                        .tableName(TABLE_NAME)
+                        .key(Map.of("ID", item.get("ID")))
+                        .updateExpression("SET #pessoaId = #pessoa.#id, #documentoValor = #pessoa.#documento.#valor")
+                        .conditionExpression("attribute_not_exists(#pessoaId) AND attribute_not_exists(#chaveId)")
+                        .expressionAttributeNames(Map.of(
+                            "#pessoaId", "PESSOA_ID",
+                            "#chaveId", "CHAVE_ID",
+                            "#documentoValor", "DOCUMENTO_VALOR",
+                            "#pessoa", "PESSOA",
+                            "#documento", "DOCUMENTO",
+                            "#id", "ID",
+                            "#valor", "VALOR"))
+                        .build()))
+                    .thenReturn(1L)
+                    .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(0L)),
+                batchOperations.getConcurrency())
+            .reduce(0L, Long::sum);
+    }
+
+    /**
+     * Marks the vehicle as sold and deletes its reservations (found through {@code VeiculoIdIndex}), its claim and
+     * its {@code RESERVADO_ATE} marker in a single TransactWriteItems. Reservations beyond the transaction size are
+     * removed with batched deletes first.
+     * <p>
+     * The claim is read first and its holder always goes into the transaction, even when the index has not caught
+     * up with it or its row is already gone: deleting a missing row is a no-op, so an orphaned claim is simply
+     * released. The claim Delete is conditional on the holder read (or on there being no claim), so a reservation
+     * taking the vehicle in between cancels the sale with {@link UnavailableException}. Every step is idempotent
+     * and each attempt reads the claim and the reservations again, so the sale can simply be retried.
+     *
+     * @return IDs of the deleted reservations, or {@link NotFoundException} when the vehicle does not exist
+     */
+    public Mono<List<String>> confirmarVenda(String veiculoId) {
+        var request = QueryRequest.builder()
+            .tableName(TABLE_NAME)
+            .indexName("VeiculoIdIndex")
+            .keyConditionExpression("#veiculo = :veiculo")
+            .projectionExpression("#id")
+            .expressionAttributeNames(Map.of("#id", "ID", "#veiculo", "VEICULO_ID"))
+            .expressionAttributeValues(Map.of(":veiculo", AttributeValue.fromS(veiculoId)))
+            .build();
+
+        return lerReservaId(BLOQUEIOS_TABLE_NAME, Map.of("VEICULO_ID", AttributeValue.fromS(veiculoId)))
+            .flatMap(detentor -> Flux.from(client.queryPaginator(request).items())
+                .map(item -> item.get("ID").s())
+                .startWith(Flux.fromStream(detentor.stream()))
+                .distinct()
+                .collectList()
+                .flatMap(ids -> {
+                    var limite = Math.min(ids.size(), TRANSACT_SIZE - 2);
+                    return deleteAllById(ids.subList(limite, ids.size()))
+                        .then(Mono.defer(() -> confirmarVenda(veiculoId, detentor, ids.subList(0, limite))))
+                        .thenReturn(ids);
+                }));
+    }
+
+    private Mono<Void> confirmarVenda(String veiculoId, Optional<String> detentor, List<String> reservaIds) {
+        var itens = new ArrayList<TransactWriteItem>();
+        itens.add(TransactWriteItem.builder()
+            .update(update -> update.tableName(VEICULOS_TABLE_NAME)
+                .key(Map.of("ID", AttributeValue.fromS(veiculoId)))
+                .updateExpression("SET #vendido = :vendido REMOVE #reservadoAte, #reserva")
+                .conditionExpression("attribute_exists(#id)")
+                .expressionAttributeNames(Map.of(
+                    "#id", "ID",
+                    "#vendido", "VENDIDO",
+                    "#reservadoAte", "RESERVADO_ATE",
+                    "#reserva", "RESERVA_ID"))
+                .expressionAttributeValues(Map.of(":vendido", AttributeValue.fromS(Boolean.TRUE.toString()))))
+            .build());
+
+        itens.add(TransactWriteItem.builder()
+            .delete(detentor.map(reservaId -> liberarBloqueio(veiculoId, reservaId))
+                .orElseGet(() -> Delete.builder()
+                    .tableName(BLOQUEIOS_TABLE_NAME)
+                    .key(Map.of("VEICULO_ID", AttributeValue.fromS(veiculoId)))
+                    .conditionExpression("attribute_not_exists(#veiculo)")
+                    .expressionAttributeNames(Map.of("#veiculo", "VEICULO_ID"))
+                    .build()))
+            .build());
+
+        reservaIds.forEach(id -> itens.add(TransactWriteItem.builder()
+            .delete(delete -> delete.tableName(TABLE_NAME)
+                .key(Map.of("ID", AttributeValue.fromS(id))))
+            .build()));
+
+        var request = TransactWriteItemsRequest.builder()
+            .transactItems(itens)
+            .build();
+
+        return Mono.fromFuture(() -> client.transactWriteItems(request))
+            .then()
+            .onErrorMap(TransactionCanceledException.class, e -> convertCancelamentoVenda(e, veiculoId));
+    }
+
+    private RuntimeException convertCancelamentoVenda(TransactionCanceledException e, String veiculoId) {
+        var motivos = e.hasCancellationReasons() ? e.cancellationReasons() : List.<CancellationReason>of();
+        if (!motivos.isEmpty() && "ConditionalCheckFailed".equals(motivos.get(0).code())) {
+            return new NotFoundException(String.format("Veículo [%s] não encontrado.", veiculoId), e);
+        }
+        if (motivos.stream().anyMatch(motivo -> "ConditionalCheckFailed".equals(motivo.code())
+            || "TransactionConflict".equals(motivo.code()))) {
+            return new UnavailableException(String.format("Reservas do veículo [%s] alteradas durante a venda, "
+                + "tente novamente.", veiculoId));
+        }
+        return e;
+    }
+
+    private Mono<Void> deleteAllById(List<String> ids) {
+        return Flux.fromIterable(ids)
+            .map(id -> WriteRequest.builder()
+                .deleteRequest(delete -> delete.key(Map.of("ID", AttributeValue.fromS(id))))
+                .build())
+            .buffer(DynamoBatchOperations.WRITE_BATCH_SIZE)
+            .flatMap(requests -> batchOperations.write(TABLE_NAME, requests), batchOperations.getConcurrency())
+            .filter(pendentes -> !pendentes.isEmpty())
+            .flatMap(pendentes -> Mono.error(new UnavailableException(
+                String.format("%s reservas não puderam ser removidas.", pendentes.size()))))
+            .then();
     }
 
     public Flux<Reserva> fetchByVeiculoId(String veiculoId) {
@@ -103,10 +688,8 @@ public class ReservaRepository {
             .expressionAttributeValues(Map.of(":veiculo", AttributeValue.fromS(veiculoId)))
             .build();
 
-        return Mono.fromFuture(client.query(request))
-            .filter(QueryResponse::hasItems)
-            .flatMapIterable(QueryResponse::items)
-            .map(this::convertItem);
+        return Flux.from(client.queryPaginator(request).items())
+            .flatMapSequential(this::convertItem);
     }
 
     public Flux<Reserva> fetchByCodigoReserva(String codigo) {
@@ -118,10 +701,8 @@ public class ReservaRepository {
             .expressionAttributeValues(Map.of(":codigo", AttributeValue.fromS(codigo)))
             .build();
 
-        return Mono.fromFuture(client.query(request))
-            .filter(QueryResponse::hasItems)
-            .flatMapIterable(QueryResponse::items)
-            .map(this::convertItem);
+        return Flux.from(client.queryPaginator(request).items())
+            .flatMapSequential(this::convertItem);
     }
 
     public Flux<Reserva> fetchByVeiculo(String placa, String renavam) {
@@ -135,14 +716,31 @@ public class ReservaRepository {
                 ":renavam", AttributeValue.fromS(renavam)))
             .build();
 
-        return Mono.fromFuture(client.query(request))
-            .filter(QueryResponse::hasItems)
-            .flatMapIterable(QueryResponse::items)
-            .map(this::convertItem);
+        return Flux.from(client.queryPaginator(request).items())
+            .flatMapSequential(this::convertItem);
     }
 
 
-    private Reserva convertItem(Map<String, AttributeValue> item) {
+    /**
+     * Rows written under a shredded key come back with the person ID and document number anonymised.
+     */
+    private Mono<Reserva> convertItem(Map<String, AttributeValue> item) {
+        if (!item.containsKey("CHAVE_ID")) {
+            return Mono.just(convertItem(item, Optional.empty()));
+        }
+        return criptografia.chaveParaLeitura(item.get("CHAVE_ID").s(), item.get("CHAVE_VERSAO").s())
+            .map(chave -> {
+                UnaryOperator<String> decifrar = chave.isPresent()
+                    ? valor -> criptografia.decifrar(chave.get(), valor)
+                    : valor -> CriptografiaPessoa.ANONIMIZADO;
+                return convertItem(item, Optional.of(decifrar));
+            });
+    }
+
+    private Reserva convertItem(Map<String, AttributeValue> item, Optional<UnaryOperator<String>> decifrar) {
+        var pessoaId = item.get("PESSOA").m().get("ID").s();
+        var documentoValor = item.get("PESSOA").m().get("DOCUMENTO").m().get("VALOR").s();
+
         return ImmutableReserva.builder()
             .id(item.get("ID").s())
             .veiculoId(item.get("VEICULO_ID").s())
@@ -151,10 +749,10 @@ public class ReservaRepository {
             .veiculoId(item.get("VEICULO_ID").s())
             .codigo(item.get("CODIGO").s())
             .pessoa(ImmutablePessoa.builder()
-                .id(item.get("PESSOA").m().get("ID").s())
+                .id(decifrar.map(d -> d.apply(pessoaId)).orElse(pessoaId))
                 .documento(ImmutableDocumento.builder()
                     .tipo(item.get("PESSOA").m().get("DOCUMENTO").m().get("TIPO").s())
-                    .valor(item.get("PESSOA").m().get("DOCUMENTO").m().get("VALOR").s())
+                    .valor(decifrar.map(d -> d.apply(documentoValor)).orElse(documentoValor))
                     .build()
                 )
                 .build())
@@ -168,4 +766,7 @@ public class ReservaRepository {
             )
             .build();
     }
+
+    private record Exclusao(String reservaId, String veiculoId) {
+    }
 }
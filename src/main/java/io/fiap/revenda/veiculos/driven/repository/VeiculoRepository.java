@@ -1,69 +1,93 @@
 package io.fiap.revenda.veiculos.driven.repository;
 
+import io.fiap.revenda.veiculos.driven.batch.MicroBatcher;
+import io.fiap.revenda.veiculos.driven.domain.AlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.Calendario;
+import io.fiap.revenda.veiculos.driven.domain.ImmutablePagina;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableResultadoEscrita;
 import io.fiap.revenda.veiculos.driven.domain.ImmutableVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.Pagina;
+import io.fiap.revenda.veiculos.driven.domain.ResultadoEscrita;
 import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.exception.BusinessException;
+import io.fiap.revenda.veiculos.driven.exception.NotFoundException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
-import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
 @Repository
-public class VeiculoRepository {
+public class VeiculoRepository implements DisposableBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VeiculoRepository.class);
     private static final String TABLE_NAME = "veiculos_tb";
+    private static final Map<String, String> ATRIBUTOS = Map.ofEntries(
+        Map.entry("ano", "ANO"),
+        Map.entry("cor", "COR"),
+        Map.entry("valor", "VALOR"),
+        Map.entry("placa", "PLACA"),
+        Map.entry("marca", "MARCA"),
+        Map.entry("cambio", "CAMBIO"),
+        Map.entry("modelo", "MODELO"),
+        Map.entry("renavam", "RENAVAM"),
+        Map.entry("motorizacao", "MOTORIZACAO"),
+        Map.entry("quilometragem", "QUILOMETRAGEM"),
+        Map.entry("opcionais", "OPCIONAIS"));
 
     private final DynamoDbAsyncClient client;
+    private final PaginaTokenConverter tokenConverter;
+    private final DynamoBatchOperations batchOperations;
+    private final MicroBatcher<String, Veiculo> fetchByIdBatcher;
 
-    public VeiculoRepository(DynamoDbAsyncClient client) {
+    public VeiculoRepository(DynamoDbAsyncClient client,
+                             PaginaTokenConverter tokenConverter,
+                             DynamoBatchOperations batchOperations,
+                             @Value("${aws.dynamo.veiculos.fetchById.window:5}") String fetchByIdWindow) {
         this.client = client;
+        this.tokenConverter = tokenConverter;
+        this.batchOperations = batchOperations;
+        this.fetchByIdBatcher = new MicroBatcher<>(DynamoBatchOperations.GET_BATCH_SIZE,
+            Duration.ofMillis(Long.parseLong(fetchByIdWindow)),
+            batchOperations.getConcurrency(),
+            ids -> fetchByIds(ids).collectMap(Veiculo::getId));
     }
 
-    public Mono<Void> save(Veiculo veiculo) {
-        var atributos = new HashMap<String, AttributeValueUpdate>();
-        atributos.put("COR",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getCor()).build()).build());
-        atributos.put("ANO",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getAno()).build()).build());
-        atributos.put("MARCA",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getMarca()).build()).build());
-        atributos.put("PLACA",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getPlaca()).build()).build());
-        atributos.put("CAMBIO",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getCambio()).build()).build());
-        atributos.put("RENAVAM",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getRenavam()).build()).build());
-        atributos.put("MODELO",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getModelo()).build()).build());
-        atributos.put("VALOR",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getValor()).build()).build());
-        atributos.put("VENDIDO",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getVendido().toString()).build()).build());
-        atributos.put("MOTORIZACAO",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getMotorizacao()).build()).build());
-        atributos.put("QUILOMETRAGEM",
-            AttributeValueUpdate.builder().value(v -> v.s(veiculo.getQuilometragem()).build()).build());
-
-        Map<String, String> opcionais = veiculo.getOpcionais();
+    @Override
+    public void destroy() {
+        fetchByIdBatcher.dispose();
+    }
 
-        atributos.put("OPCIONAIS",
-            AttributeValueUpdate.builder().value(
-                    v -> v.m(
-                        opcionais.keySet()
-                            .stream()
-                            .collect(Collectors.toMap(k -> k, k -> AttributeValue.builder().s(opcionais.get(k)).build()))
-                    )
-                )
-                .build()
-        );
+    public Mono<Void> save(Veiculo veiculo) {
+        var atributos = convertVeiculo(veiculo)
+            .entrySet()
+            .stream()
+            .filter(e -> !e.getKey().equals("ID"))
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> AttributeValueUpdate.builder().value(e.getValue()).build()));
 
         var request = UpdateItemRequest.builder()
             .attributeUpdates(atributos)
@@ -75,6 +99,221 @@ public class VeiculoRepository {
             .then();
     }
 
+    /**
+     * Applies the changes with a single UpdateItem touching only the changed attributes (or individual
+     * {@code OPCIONAIS} keys). {@link AlteracaoVeiculo.Operacao#TESTAR} changes become condition expressions
+     * evaluated against the stored item.
+     */
+    public Mono<Void> patch(String id, List<AlteracaoVeiculo> alteracoes) {
+        var efetivas = new LinkedHashMap<String, AlteracaoVeiculo>();
+        var testes = new ArrayList<AlteracaoVeiculo>();
+        alteracoes.forEach(alteracao -> {
+            if (alteracao.getOperacao() == AlteracaoVeiculo.Operacao.TESTAR) {
+                testes.add(alteracao);
+            } else {
+                efetivas.remove(alteracao.getCampo() + "/" + alteracao.getChave());
+                efetivas.put(alteracao.getCampo() + "/" + alteracao.getChave(), alteracao);
+            }
+        });
+
+        var nomes = new HashMap<String, String>();
+        var valores = new HashMap<String, AttributeValue>();
+        var definicoes = new ArrayList<String>();
+        var remocoes = new ArrayList<String>();
+        var condicoes = new ArrayList<String>();
+
+        nomes.put("#ID", "ID");
+        condicoes.add("attribute_exists(#ID)");
+
+        var indice = 0;
+        for (var alteracao : efetivas.values()) {
+            var caminho = convertCaminho(alteracao, indice, nomes);
+            if (alteracao.getOperacao() == AlteracaoVeiculo.Operacao.DEFINIR) {
+                valores.put(":v" + indice, convertAlteracao(alteracao));
+                definicoes.add(caminho + " = :v" + indice);
+            } else {
+                remocoes.add(caminho);
+            }
+            indice++;
+        }
+        for (var teste : testes) {
+            valores.put(":v" + indice, convertAlteracao(teste));
+            condicoes.add(convertCaminho(teste, indice, nomes) + " = :v" + indice);
+            indice++;
+        }
+
+        var expressao = new StringBuilder();
+        if (!definicoes.isEmpty()) {
+            expressao.append("SET ").append(String.join(", ", definicoes));
+        }
+        if (!remocoes.isEmpty()) {
+            expressao.append(" REMOVE ").append(String.join(", ", remocoes));
+        }
+
+        var builder = UpdateItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", AttributeValue.fromS(id)))
+            .updateExpression(expressao.toString().trim())
+            .conditionExpression(String.join(" AND ", condicoes))
+            .expressionAttributeNames(nomes)
+            .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD);
+        if (!valores.isEmpty()) {
+            builder.expressionAttributeValues(valores);
+        }
+
+        return Mono.fromFuture(() -> client.updateItem(builder.build()))
+            .onErrorMap(ConditionalCheckFailedException.class, e -> e.hasItem() && !e.item().isEmpty()
+                ? new BusinessException(String.format("Veículo [%s] não atende às condições de teste do patch.", id), e)
+                : new NotFoundException(String.format("Veículo [%s] não encontrado.", id), e))
+            .then();
+    }
+
+    private String convertCaminho(AlteracaoVeiculo alteracao, Integer indice, Map<String, String> nomes) {
+        var atributo = ATRIBUTOS.get(alteracao.getCampo());
+        nomes.put("#" + atributo, atributo);
+        if (alteracao.getChave() == null) {
+            return "#" + atributo;
+        }
+        nomes.put("#k" + indice, alteracao.getChave());
+        return "#" + atributo + ".#k" + indice;
+    }
+
+    private AttributeValue convertAlteracao(AlteracaoVeiculo alteracao) {
+        return alteracao.getCampo().equals("valor")
+            ? AttributeValue.fromN(new BigDecimal(alteracao.getValor()).toPlainString())
+            : AttributeValue.fromS(alteracao.getValor());
+    }
+
+    public Flux<ResultadoEscrita> saveAll(Flux<Veiculo> veiculos) {
+        return veiculos
+            .buffer(DynamoBatchOperations.WRITE_BATCH_SIZE)
+            .flatMap(this::saveBatch, batchOperations.getConcurrency());
+    }
+
+    /**
+     * New vehicles are created with one BatchWriteItem. Vehicles that already exist, found with a BatchGetItem
+     * first, are updated one by one instead, leaving {@code VENDIDO} and the reservation marker alone, so an import
+     * never resets a sale nor puts a reserved vehicle back in the listings. Every vehicle gets its own result: one
+     * that cannot be converted, is left unprocessed or fails its update does not fail the others.
+     */
+    private Flux<ResultadoEscrita> saveBatch(List<Veiculo> veiculos) {
+        var importacoes = veiculos.stream()
+            .map(this::convertImportacao)
+            .toList();
+
+        var itens = new LinkedHashMap<String, Map<String, AttributeValue>>();
+        importacoes.stream()
+            .filter(importacao -> importacao.erro() == null)
+            .forEach(importacao -> itens.put(importacao.id(), importacao.item()));
+
+        return fetchExistentes(itens.keySet())
+            .flatMap(existentes -> Mono.zip(
+                criar(itens.values()
+                    .stream()
+                    .filter(item -> !existentes.contains(item.get("ID").s()))
+                    .toList()),
+                atualizar(itens.values()
+                    .stream()
+                    .filter(item -> existentes.contains(item.get("ID").s()))
+                    .toList())))
+            .flatMapIterable(erros -> importacoes.stream()
+                .map(importacao -> resultado(importacao.id(), importacao.erro() != null
+                    ? importacao.erro()
+                    : erros.getT1().getOrDefault(importacao.id(), erros.getT2().get(importacao.id()))))
+                .toList())
+            .onErrorResume(throwable -> Flux.fromIterable(importacoes)
+                .map(importacao -> resultado(importacao.id(), importacao.erro() != null
+                    ? importacao.erro()
+                    : throwable.getMessage())));
+    }
+
+    private Importacao convertImportacao(Veiculo veiculo) {
+        try {
+            return new Importacao(veiculo.getId(), convertVeiculo(veiculo), null);
+        } catch (NumberFormatException e) {
+            return new Importacao(veiculo.getId(), null,
+                String.format("Valor [%s] não é numérico.", veiculo.getValor()));
+        }
+    }
+
+    private Mono<Set<String>> fetchExistentes(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Mono.just(Set.of());
+        }
+        return batchOperations.get(TABLE_NAME, ids.stream()
+                .map(id -> Map.of("ID", AttributeValue.fromS(id)))
+                .toList())
+            .map(item -> item.get("ID").s())
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return error of each vehicle left unprocessed, by ID
+     */
+    private Mono<Map<String, String>> criar(List<Map<String, AttributeValue>> itens) {
+        if (itens.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return batchOperations.write(TABLE_NAME, itens.stream()
+                .map(item -> WriteRequest.builder()
+                    .putRequest(put -> put.item(item))
+                    .build())
+                .toList())
+            .map(pendentes -> pendentes.stream()
+                .collect(Collectors.toMap(pendente -> pendente.putRequest().item().get("ID").s(),
+                    pendente -> "Item não processado após todas as tentativas.")));
+    }
+
+    /**
+     * @return error of each vehicle whose update failed, by ID
+     */
+    private Mono<Map<String, String>> atualizar(List<Map<String, AttributeValue>> itens) {
+        return Flux.fromIterable(itens)
+            .flatMap(item -> Mono.fromFuture(() -> client.updateItem(convertAtualizacao(item)))
+                    .then(Mono.<Map.Entry<String, String>>empty())
+                    .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(Map.entry(item.get("ID").s(),
+                        String.format("Veículo [%s] removido durante a importação.", item.get("ID").s()))))
+                    .onErrorResume(throwable -> Mono.just(Map.entry(item.get("ID").s(),
+                        String.valueOf(throwable.getMessage())))),
+                batchOperations.getConcurrency())
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Overwrites the imported attributes of an existing vehicle, except {@code VENDIDO}; attributes the import does
+     * not carry, like the reservation marker, are kept.
+     */
+    private UpdateItemRequest convertAtualizacao(Map<String, AttributeValue> item) {
+        var nomes = new HashMap<String, String>();
+        var valores = new HashMap<String, AttributeValue>();
+        var definicoes = new ArrayList<String>();
+        nomes.put("#ID", "ID");
+        new TreeMap<>(item).forEach((atributo, valor) -> {
+            if (!atributo.equals("ID") && !atributo.equals("VENDIDO")) {
+                nomes.put("#" + atributo, atributo);
+                valores.put(":" + atributo, valor);
+                definicoes.add("#" + atributo + " = :" + atributo);
+            }
+        });
+
+        return UpdateItemRequest.builder()
+            .tableName(TABLE_NAME)
+            .key(Map.of("ID", item.get("ID")))
+            .updateExpression("SET " + String.join(", ", definicoes))
+            .conditionExpression("attribute_exists(#ID)")
+            .expressionAttributeNames(nomes)
+            .expressionAttributeValues(valores)
+            .build();
+    }
+
+    private ResultadoEscrita resultado(String id, String erro) {
+        return ImmutableResultadoEscrita.builder()
+            .id(id)
+            .sucesso(erro == null)
+            .erro(erro)
+            .build();
+    }
+
     public Mono<Void> deleteById(String id) {
         var key = new HashMap<String, AttributeValue>();
         key.put("ID", AttributeValue.fromS(id));
@@ -88,37 +327,164 @@ public class VeiculoRepository {
             .then();
     }
 
-    public Flux<Veiculo> fetch(Boolean vendido) {
+    /**
+     * Queries {@code VendidoValorIndex} (partition {@code VENDIDO}, numeric sort key {@code VALOR}), so results come
+     * back ordered by price and the optional price range is applied as a key condition. Unsold vehicles are also
+     * filtered on the {@code RESERVADO_ATE} marker kept by reservations, so reserved ones are left out; a filtered
+     * page may hold fewer than {@code pageSize} items.
+     */
+    public Mono<Pagina<Veiculo>> fetch(Boolean vendido, Integer pageSize, String pageToken,
+                                       BigDecimal precoMin, BigDecimal precoMax) {
+        return Mono.fromSupplier(() -> query(vendido, precoMin, precoMax)
+                .limit(pageSize)
+                .exclusiveStartKey(tokenConverter.decode(pageToken))
+                .build())
+            .flatMap(request -> Mono.fromFuture(client.query(request)))
+            .map(response -> ImmutablePagina.<Veiculo>builder()
+                .itens(response.items()
+                    .stream()
+                    .map(this::convertItem)
+                    .toList())
+                .proximaPagina(response.hasLastEvaluatedKey()
+                    ? tokenConverter.encode(response.lastEvaluatedKey())
+                    : null)
+                .build());
+    }
+
+    /**
+     * Same query as {@link #fetch(Boolean, Integer, String, BigDecimal, BigDecimal)} over every page. Pages of
+     * {@code pageSize} items are requested through the SDK paginator only as downstream demand asks for them.
+     */
+    public Flux<Veiculo> fetchAll(Boolean vendido, Integer pageSize, BigDecimal precoMin, BigDecimal precoMax) {
+        return Flux.defer(() -> Flux.from(client.queryPaginator(query(vendido, precoMin, precoMax)
+                    .limit(pageSize)
+                    .build())
+                .items()))
+            .map(this::convertItem);
+    }
+
+    private QueryRequest.Builder query(Boolean vendido, BigDecimal precoMin, BigDecimal precoMax) {
+        var valores = new HashMap<String, AttributeValue>();
+        valores.put(":vendido", AttributeValue.fromS(vendido.toString()));
+
+        var condicao = new StringBuilder("#vendido = :vendido");
+        if (precoMin != null && precoMax != null) {
+            condicao.append(" AND #valor BETWEEN :precoMin AND :precoMax");
+        } else if (precoMin != null) {
+            condicao.append(" AND #valor >= :precoMin");
+        } else if (precoMax != null) {
+            condicao.append(" AND #valor <= :precoMax");
+        }
+        if (precoMin != null) {
+            valores.put(":precoMin", AttributeValue.fromN(precoMin.toPlainString()));
+        }
+        if (precoMax != null) {
+            valores.put(":precoMax", AttributeValue.fromN(precoMax.toPlainString()));
+        }
+
+        var nomes = new HashMap<String, String>();
+        nomes.put("#vendido", "VENDIDO");
+        if (precoMin != null || precoMax != null) {
+            nomes.put("#valor", "VALOR");
+        }
+        if (!vendido) {
+            nomes.put("#reservadoAte", "RESERVADO_ATE");
+            valores.put(":hoje", AttributeValue.fromN(String.valueOf(Calendario.hoje().toEpochDay())));
+        }
+
         var request = QueryRequest.builder()
             .tableName(TABLE_NAME)
-            .indexName("VendidoIndex")
-            .keyConditionExpression("#vendido = :vendido")
-            .expressionAttributeNames(Map.of("#vendido", "VENDIDO"))
-            .expressionAttributeValues(Map.of(":vendido", AttributeValue.fromS(vendido.toString())))
-            .build();
-
-        return Mono.fromFuture(client.query(request))
-            .filter(QueryResponse::hasItems)
-            .map(response -> response.items()
-                .stream()
-                .map(this::convertItem)
-                .toList()
-            )
-            .flatMapIterable(l -> l);
+            .indexName("VendidoValorIndex")
+            .keyConditionExpression(condicao.toString())
+            .expressionAttributeNames(nomes)
+            .expressionAttributeValues(valores)
+            .scanIndexForward(true);
+        if (!vendido) {
+            request.filterExpression("attribute_not_exists(#reservadoAte) OR #reservadoAte < :hoje");
+        }
+        return request;
     }
 
+    /**
+     * Concurrent lookups are coalesced into a single BatchGetItem per window, see {@link MicroBatcher}.
+     */
     public Mono<Veiculo> fetchById(String id) {
-        var request = QueryRequest.builder()
+        return fetchByIdBatcher.load(id);
+    }
+
+    public Flux<Veiculo> fetchByIds(Collection<String> ids) {
+        return Flux.fromIterable(new LinkedHashSet<>(ids))
+            .buffer(DynamoBatchOperations.GET_BATCH_SIZE)
+            .flatMap(lote -> batchOperations.get(TABLE_NAME, lote.stream()
+                    .map(id -> Map.of("ID", AttributeValue.fromS(id)))
+                    .toList()),
+                batchOperations.getConcurrency())
+            .map(this::convertItem);
+    }
+
+    /**
+     * One-off conversion of legacy string {@code VALOR} attributes to numbers, required by {@code VendidoValorIndex}.
+     *
+     * @return number of converted vehicles
+     */
+    public Mono<Long> backfillValor() {
+        var nomes = Map.of("#id", "ID", "#valor", "VALOR");
+        var request = ScanRequest.builder()
             .tableName(TABLE_NAME)
-            .keyConditionExpression("#id = :id")
-            .expressionAttributeNames(Map.of("#id", "ID"))
-            .expressionAttributeValues(Map.of(":id", AttributeValue.fromS(id)))
+            .filterExpression("attribute_type(#valor, :tipo)")
+            .projectionExpression("#id, #valor")
+            .expressionAttributeNames(nomes)
+            .expressionAttributeValues(Map.of(":tipo", AttributeValue.fromS("S")))
             .build();
 
-        return Mono.fromFuture(client.query(request))
-            .filter(QueryResponse::hasItems)
-            .map(response -> response.items().get(0))
-            .map(this::convertItem);
+        return Flux.from(client.scanPaginator(request).items())
+            .flatMap(item -> Mono.fromSupplier(() -> UpdateItemRequest.builder()
+                        .tableName(TABLE_NAME)
+                        .key(Map.of("ID", item.get("ID")))
+                        .updateExpression("SET #valor = :valor")
+                        .conditionExpression("attribute_type(#valor, :tipo)")
+                        .expressionAttributeNames(Map.of("#valor", "VALOR"))
+                        .expressionAttributeValues(Map.of(
+                            ":valor", AttributeValue.fromN(new BigDecimal(item.get("VALOR").s()).toPlainString()),
+                            ":tipo", AttributeValue.fromS("S")))
+                        .build())
+                    .flatMap(update -> Mono.fromFuture(() -> client.updateItem(update)))
+                    .thenReturn(1L)
+                    .onErrorResume(ConditionalCheckFailedException.class, e -> Mono.just(0L))
+                    .onErrorResume(NumberFormatException.class, e -> {
+                        LOGGER.warn("vehicle {} has a non numeric VALOR [{}], skipping", item.get("ID").s(), item.get("VALOR").s());
+                        return Mono.just(0L);
+                    }),
+                batchOperations.getConcurrency())
+            .reduce(0L, Long::sum);
+    }
+
+    private Map<String, AttributeValue> convertVeiculo(Veiculo veiculo) {
+        var item = new HashMap<String, AttributeValue>();
+        item.put("ID", AttributeValue.fromS(veiculo.getId()));
+        item.put("COR", AttributeValue.fromS(veiculo.getCor()));
+        item.put("ANO", AttributeValue.fromS(veiculo.getAno()));
+        item.put("MARCA", AttributeValue.fromS(veiculo.getMarca()));
+        item.put("PLACA", AttributeValue.fromS(veiculo.getPlaca()));
+        item.put("CAMBIO", AttributeValue.fromS(veiculo.getCambio()));
+        item.put("RENAVAM", AttributeValue.fromS(veiculo.getRenavam()));
+        item.put("MODELO", AttributeValue.fromS(veiculo.getModelo()));
+        item.put("VALOR", AttributeValue.fromN(new BigDecimal(veiculo.getValor()).toPlainString()));
+        item.put("VENDIDO", AttributeValue.fromS(veiculo.getVendido().toString()));
+        item.put("MOTORIZACAO", AttributeValue.fromS(veiculo.getMotorizacao()));
+        item.put("QUILOMETRAGEM", AttributeValue.fromS(veiculo.getQuilometragem()));
+
+        Map<String, String> opcionais = veiculo.getOpcionais();
+
+        item.put("OPCIONAIS", AttributeValue.fromM(
+            opcionais.keySet()
+                .stream()
+                .collect(Collectors.toMap(k -> k, k -> AttributeValue.builder().s(opcionais.get(k)).build()))
+        ));
+        return item;
+    }
+
+    private record Importacao(String id, Map<String, AttributeValue> item, String erro) {
     }
 
     private Veiculo convertItem(Map<String, AttributeValue> item) {
@@ -131,7 +497,7 @@ public class VeiculoRepository {
             .cambio(item.get("CAMBIO").s())
             .modelo(item.get("MODELO").s())
             .renavam(item.get("RENAVAM").s())
-            .valor(item.get("VALOR").s())
+            .valor(convertValor(item.get("VALOR")))
             .vendido(Boolean.valueOf(item.get("VENDIDO").s()))
             .motorizacao(item.get("MOTORIZACAO").s())
             .quilometragem(item.get("QUILOMETRAGEM").s())
@@ -139,6 +505,10 @@ public class VeiculoRepository {
             .build();
     }
 
+    private String convertValor(AttributeValue valor) {
+        return valor.n() != null ? valor.n() : valor.s();
+    }
+
     private Function<Map<String, AttributeValue>, Map<String, String>> convertMapItem() {
         return map -> map.keySet().stream()
             .collect(Collectors.toMap(k -> k, k -> map.get(k).s()));
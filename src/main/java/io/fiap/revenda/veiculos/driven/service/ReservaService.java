@@ -2,43 +2,137 @@ package io.fiap.revenda.veiculos.driven.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.fiap.revenda.veiculos.driven.client.SqsMessageClient;
+import io.fiap.revenda.veiculos.driven.cache.ExpiracaoReservaTimer;
 import io.fiap.revenda.veiculos.driven.client.dto.PessoaExclusaoDadosMessage;
+import io.fiap.revenda.veiculos.driven.crypto.CriptografiaPessoa;
 import io.fiap.revenda.veiculos.driven.domain.Reserva;
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.event.ReservaExpiradaEvent;
+import io.fiap.revenda.veiculos.driven.exception.DuplicatedKeyException;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
 import io.fiap.revenda.veiculos.driven.repository.ReservaRepository;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sqs.model.Message;
 
 @Service
 public class ReservaService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReservaService.class);
+    private static final int VERIFICACOES_SIMULTANEAS = 8;
+
     private final ReservaRepository reservaRepository;
-    private final SqsMessageClient messageClient;
+    private final ExpiracaoReservaTimer expiracaoTimer;
+    private final CriptografiaPessoa criptografia;
     private final ObjectMapper objectMapper;
-    private final String queue;
+    /**
+     * Whether rows written before the data migrations may still exist; turned off once the migration job has run,
+     * which skips the extra reads below.
+     */
+    private final Boolean fallback;
+    private final RetryBackoffSpec expurgoRetry;
 
     public ReservaService(ReservaRepository reservaRepository,
-                          SqsMessageClient messageClient,
+                          ExpiracaoReservaTimer expiracaoTimer,
+                          CriptografiaPessoa criptografia,
                           ObjectMapper objectMapper,
-                          @Value("${aws.sqs.pessoaExclusaoDados.queue}")
-                          String queue) {
+                          @Value("${aws.dynamo.backfill.fallback:true}") String fallback,
+                          @Value("${aws.dynamo.reservas.expiracao.retry.maxAttempts:10}") String expurgoTentativas,
+                          @Value("${aws.dynamo.reservas.expiracao.retry.baseDelay:1000}") String expurgoAtrasoBase,
+                          @Value("${aws.dynamo.reservas.expiracao.retry.maxDelay:60000}") String expurgoAtrasoMaximo) {
         this.reservaRepository = reservaRepository;
-        this.messageClient = messageClient;
+        this.expiracaoTimer = expiracaoTimer;
+        this.criptografia = criptografia;
         this.objectMapper = objectMapper;
-        this.queue = queue;
+        this.fallback = Boolean.valueOf(fallback);
+        this.expurgoRetry = Retry.backoff(Long.parseLong(expurgoTentativas),
+                Duration.ofMillis(Long.parseLong(expurgoAtrasoBase)))
+            .maxBackoff(Duration.ofMillis(Long.parseLong(expurgoAtrasoMaximo)))
+            .filter(this::isTransitoria);
     }
 
+    /**
+     * The vehicle claim rejects a second reservation; while unmigrated rows may exist, a reservation written before
+     * claims existed is looked up as well.
+     */
     public Mono<Void> save(Reserva reserva) {
-        return reservaRepository.save(reserva);
+        return rejeitarReservaLegada(reserva.getVeiculoId())
+            .then(Mono.defer(() -> reservaRepository.save(reserva)))
+            .doOnNext(salva -> expiracaoTimer.agendar(salva.getId(), salva.getVeiculoId(), salva.getExpiraEm()))
+            .then();
     }
 
     public Mono<Void> deleteById(String id) {
-        return reservaRepository.deleteById(id);
+        return reservaRepository.deleteById(id)
+            .doOnSuccess(unused -> expiracaoTimer.cancelar(id));
+    }
+
+    /**
+     * Purges a reservation as soon as its expiry day ends, releasing the vehicle claim and the
+     * {@code RESERVADO_ATE} marker instead of leaving them to DynamoDB TTL. A transaction cancelled by a concurrent
+     * write or throttled is retried with exponential backoff; other failures, or running out of attempts, leave the
+     * expired claim and marker in place, which no longer block the vehicle.
+     */
+    @EventListener
+    public void onReservaExpirada(ReservaExpiradaEvent event) {
+        Mono.defer(() -> reservaRepository.deleteById(event.reservaId()))
+            .retryWhen(expurgoRetry.doBeforeRetry(sinal -> LOGGER.warn(
+                "retrying the purge of expired reservation {}, attempt {}", event.reservaId(), sinal.totalRetries() + 1)))
+            .doOnSuccess(unused -> LOGGER.debug("expired reservation {} of vehicle {} purged", event.reservaId(),
+                event.veiculoId()))
+            .doOnError(throwable -> LOGGER.error("an error occurred while purging expired reservation {}",
+                event.reservaId(), throwable))
+            .onErrorResume(throwable -> Mono.empty())
+            .subscribe();
+    }
+
+    private Boolean isTransitoria(Throwable throwable) {
+        return throwable instanceof UnavailableException
+            || throwable instanceof AwsServiceException aws && aws.isThrottlingException();
+    }
+
+    private Mono<Void> rejeitarReservaLegada(String veiculoId) {
+        if (!fallback) {
+            return Mono.empty();
+        }
+        return reservaRepository.existeReservaAtiva(veiculoId)
+            .filter(Boolean::booleanValue)
+            .flatMap(reservado -> Mono.error(new DuplicatedKeyException(
+                String.format("Veículo [%s] já está reservado.", veiculoId))));
+    }
+
+    /**
+     * Unsold listings leave out vehicles carrying the {@code RESERVADO_ATE} marker; while unmigrated rows may exist,
+     * this also leaves out vehicles reserved before claims and markers existed, with one index query per vehicle.
+     */
+    public Flux<Veiculo> semReservaLegada(Flux<Veiculo> veiculos) {
+        if (!fallback) {
+            return veiculos;
+        }
+        return veiculos.flatMapSequential(veiculo -> reservaRepository.existeReservaAtiva(veiculo.getId())
+                .filter(reservado -> !reservado)
+                .map(reservado -> veiculo),
+            VERIFICACOES_SIMULTANEAS);
+    }
+
+    /**
+     * Marks the vehicle as sold and removes its reservations atomically, see {@link ReservaRepository#confirmarVenda}.
+     */
+    public Mono<Void> confirmarVenda(String veiculoId) {
+        return reservaRepository.confirmarVenda(veiculoId)
+            .doOnNext(ids -> ids.forEach(expiracaoTimer::cancelar))
+            .then();
     }
 
     public Flux<Reserva> fetch() {
@@ -59,25 +153,59 @@ public class ReservaService {
         return reservaRepository.fetch();
     }
 
-    public Flux<DeleteMessageResponse> handleEliminarDadosPessoais() {
-        return messageClient.receive(queue)
-            .filter(ReceiveMessageResponse::hasMessages)
-            .flatMapIterable(ReceiveMessageResponse::messages)
-            .flatMap(message ->
-                Mono.fromSupplier(() -> {
-                        try {
-                            return objectMapper.readValue(message.body(), PessoaExclusaoDadosMessage.class);
-                        } catch (JsonProcessingException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }).flatMap(pessoa ->
-                        this.fetch()
-                            .filter(reserva -> reserva.getPessoa().getId().equals(pessoa.getId())
-                                || reserva.getPessoa().getDocumento().getValor().equals(pessoa.getDocumento()))
-                            .flatMap(veiculo -> deleteById(veiculo.getId()))
-                            .then()
-                    )
-                    .then(messageClient.delete(queue, message))
-            );
+    public Mono<Long> backfill() {
+        return reservaRepository.backfillPessoa();
+    }
+
+    public Mono<Long> backfillBloqueios() {
+        return reservaRepository.backfillBloqueios();
+    }
+
+    public Mono<Long> backfillReservadoAte() {
+        return reservaRepository.backfillReservadoAte();
+    }
+
+    public Mono<Long> backfillTtl() {
+        return reservaRepository.backfillTtl();
+    }
+
+    /**
+     * With crypto-shredding enabled the person's data key is deleted, which anonymises every encrypted reservation
+     * at once. Reservations still stored in plaintext are found through {@code PessoaIdIndex} and
+     * {@code DocumentoValorIndex} and removed with batched deletes; while unmigrated rows may exist, those missing
+     * from the indexes are found with a filtered scan.
+     */
+    public Mono<Void> eliminarDadosPessoais(PessoaExclusaoDadosMessage pessoa) {
+        var fragmentar = criptografia.isEnabled()
+            ? criptografia.fragmentar(pessoa.getId())
+            : Mono.<Void>empty();
+
+        var porDocumento = StringUtils.hasText(pessoa.getDocumento())
+            ? reservaRepository.fetchByDocumento(pessoa.getDocumento())
+            : Flux.<Reserva>empty();
+
+        var legadas = fallback
+            ? reservaRepository.fetchLegadoByPessoa(pessoa.getId(), StringUtils.hasText(pessoa.getDocumento())
+                ? pessoa.getDocumento()
+                : null)
+            : Flux.<Reserva>empty();
+
+        return fragmentar.then(Flux.merge(reservaRepository.fetchByPessoaId(pessoa.getId()), porDocumento, legadas)
+            .distinct(Reserva::getId)
+            .collectList()
+            .filter(reservas -> !reservas.isEmpty())
+            .flatMap(reservas -> reservaRepository.deleteAll(reservas)
+                .doOnSuccess(unused -> reservas.forEach(reserva -> expiracaoTimer.cancelar(reserva.getId())))));
+    }
+
+    public Mono<Void> handleEliminarDadosPessoais(Message message) {
+        return Mono.fromSupplier(() -> {
+                try {
+                    return objectMapper.readValue(message.body(), PessoaExclusaoDadosMessage.class);
+                } catch (JsonProcessingException e) {
+                    throw new TechnicalException("Falha ao converter mensagem de exclusão de dados pessoais.", e);
+                }
+            })
+            .flatMap(this::eliminarDadosPessoais);
     }
 }
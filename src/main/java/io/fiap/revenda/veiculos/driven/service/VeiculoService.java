@@ -1,101 +1,244 @@
 package io.fiap.revenda.veiculos.driven.service;
 
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.fiap.revenda.veiculos.driven.client.SqsMessageClient;
+import com.github.fge.jsonpatch.JsonPatch;
+import io.fiap.revenda.veiculos.driven.cache.VeiculoCache;
 import io.fiap.revenda.veiculos.driven.client.dto.VeiculoQueueMessage;
-import io.fiap.revenda.veiculos.driven.domain.ImmutableVeiculo;
-import io.fiap.revenda.veiculos.driven.domain.Reserva;
+import io.fiap.revenda.veiculos.driven.domain.AlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableAlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ImmutablePagina;
+import io.fiap.revenda.veiculos.driven.domain.Pagina;
+import io.fiap.revenda.veiculos.driven.domain.ResultadoEscrita;
 import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.exception.BadRequestException;
+import io.fiap.revenda.veiculos.driven.exception.NotFoundException;
 import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
 import io.fiap.revenda.veiculos.driven.repository.VeiculoRepository;
-import io.vavr.Function2;
 import java.math.BigDecimal;
-import java.time.LocalDate;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
 
 @Service
 public class VeiculoService {
-    private final String queue;
+    private static final Logger LOGGER = LoggerFactory.getLogger(VeiculoService.class);
+    /**
+     * {@code vendido} is left out on purpose: only the sale confirmation sets it, together with releasing the
+     * vehicle's reservations.
+     */
+    private static final Set<String> CAMPOS_ALTERAVEIS = Set.of("ano", "cor", "valor", "placa", "marca", "cambio",
+        "modelo", "renavam", "motorizacao", "quilometragem", "opcionais");
+
     private final ReservaService reservaService;
+    private final VeiculoCache veiculoCache;
     private final VeiculoRepository repository;
-    private final SqsMessageClient messageClient;
     private final ObjectMapper objectMapper;
+    private final Integer defaultPageSize;
+    private final Integer maxPageSize;
 
-    public VeiculoService(@Value("${aws.sqs.veiculosConfirmarVenda.queue}")
-                          String queue,
-                          ReservaService reservaService,
+    public VeiculoService(ReservaService reservaService,
+                          VeiculoCache veiculoCache,
                           VeiculoRepository repository,
-                          SqsMessageClient messageClient,
-                          ObjectMapper objectMapper) {
+                          ObjectMapper objectMapper,
+                          @Value("${aws.dynamo.veiculos.page.defaultSize:50}")
+                          String defaultPageSize,
+                          @Value("${aws.dynamo.veiculos.page.maxSize:500}")
+                          String maxPageSize) {
         this.reservaService = reservaService;
+        this.veiculoCache = veiculoCache;
         this.repository = repository;
-        this.messageClient = messageClient;
-        this.queue = queue;
         this.objectMapper = objectMapper;
+        this.defaultPageSize = Integer.parseInt(defaultPageSize);
+        this.maxPageSize = Integer.parseInt(maxPageSize);
     }
 
     public Mono<Void> save(Veiculo pessoa) {
-        return repository.save(pessoa);
+        return repository.save(pessoa)
+            .doOnSuccess(unused -> veiculoCache.invalidate(pessoa.getId()));
+    }
+
+    public Mono<Void> patch(String id, JsonPatch patch) {
+        return Mono.fromSupplier(() -> convertPatch(patch))
+            .flatMap(alteracoes -> repository.patch(id, alteracoes))
+            .doOnSuccess(unused -> veiculoCache.invalidate(id));
+    }
+
+    public Flux<ResultadoEscrita> saveAll(Flux<Veiculo> veiculos) {
+        return repository.saveAll(veiculos)
+            .doOnNext(resultado -> veiculoCache.invalidate(resultado.getId()));
     }
 
     public Mono<Void> deleteById(String id) {
-        return repository.deleteById(id);
-    }
-
-    public Flux<Veiculo> fetch(Boolean vendido) {
-        return Mono.just(vendido)
-            .filter(Boolean::booleanValue)
-            .flatMapMany(repository::fetch)
-            .switchIfEmpty(
-                Flux.defer(() -> reservaService.fetch()
-                    .collect(Collectors.toMap(Reserva::getVeiculoId, Reserva::getExpiraEm))
-                    .flatMap(reservas ->
-                        repository.fetch(vendido)
-                            .filter(veiculo -> filterReservados().apply(veiculo, reservas))
-                            .collectList()
-                    )
-                    .flatMapIterable(v -> {
-                            v.sort(Comparator.comparing(o -> new BigDecimal(o.getValor())));
-                            return v;
-                        }
-                    ))
-            );
-    }
-
-    private Function2<Veiculo, Map<String, LocalDate>, Boolean> filterReservados() {
-        return (veiculo, reservas) -> !reservas.containsKey(veiculo.getId()) ||
-            reservas.get(veiculo.getId()).isBefore(LocalDate.now());
+        return repository.deleteById(id)
+            .doOnSuccess(unused -> veiculoCache.invalidate(id));
+    }
+
+    public Mono<Pagina<Veiculo>> fetch(Boolean vendido, Integer pageSize, String pageToken) {
+        return fetch(vendido, pageSize, pageToken, null, null);
+    }
+
+    public Mono<Pagina<Veiculo>> fetch(Boolean vendido, Integer pageSize, String pageToken,
+                                       BigDecimal precoMin, BigDecimal precoMax) {
+        if (precoMin != null && precoMax != null && precoMin.compareTo(precoMax) > 0) {
+            return Mono.error(new BadRequestException(
+                String.format("Faixa de preço inválida. Preço mínimo [%s], Preço máximo [%s]", precoMin, precoMax)));
+        }
+
+        return resolvePageSize(pageSize)
+            .flatMap(tamanho -> repository.fetch(vendido, tamanho, pageToken, precoMin, precoMax))
+            .flatMap(pagina -> vendido
+                ? Mono.just(pagina)
+                : reservaService.semReservaLegada(Flux.fromIterable(pagina.getItens()))
+                    .collectList()
+                    .<Pagina<Veiculo>>map(itens -> ImmutablePagina.copyOf(pagina).withItens(itens)));
+    }
+
+    /**
+     * Whole listing as a stream, read from DynamoDB in pages of the maximum page size as it is consumed.
+     */
+    public Flux<Veiculo> fetchAll(Boolean vendido, BigDecimal precoMin, BigDecimal precoMax) {
+        if (precoMin != null && precoMax != null && precoMin.compareTo(precoMax) > 0) {
+            return Flux.error(new BadRequestException(
+                String.format("Faixa de preço inválida. Preço mínimo [%s], Preço máximo [%s]", precoMin, precoMax)));
+        }
+        var veiculos = repository.fetchAll(vendido, maxPageSize, precoMin, precoMax);
+        return vendido ? veiculos : reservaService.semReservaLegada(veiculos);
+    }
+
+    public Mono<Long> backfill() {
+        return repository.backfillValor();
+    }
+
+    private Mono<Integer> resolvePageSize(Integer pageSize) {
+        if (pageSize == null) {
+            return Mono.just(defaultPageSize);
+        } else if (pageSize < 1) {
+            return Mono.error(new BadRequestException(String.format("Tamanho de página inválido [%s].", pageSize)));
+        }
+        return Mono.just(Math.min(pageSize, maxPageSize));
     }
 
     public Mono<Veiculo> fetchById(String id) {
-        return repository.fetchById(id);
-    }
-
-    public Flux<DeleteMessageResponse> handleVeiculoConfirmacaoVenda() {
-        return messageClient.receive(queue)
-            .filter(ReceiveMessageResponse::hasMessages)
-            .flatMapIterable(ReceiveMessageResponse::messages)
-            .flatMap(message ->
-                Mono.fromSupplier(() -> {
-                        try {
-                            return objectMapper.readValue(message.body(), VeiculoQueueMessage.class);
-                        } catch (JsonProcessingException e) {
-                            throw new TechnicalException("Falha ao converter mensagem de atualização de veículo.", e);
-                        }
-                    }).flatMap(veiculoUpdate -> this.fetchById(veiculoUpdate.getId())
-                        .map(veiculo -> ImmutableVeiculo.copyOf(veiculo).withVendido(true))
-                    )
-                    .flatMap(this::save)
-                    .flatMap(unused -> messageClient.delete(queue, message))
-            );
+        return veiculoCache.get(id, repository::fetchById);
+    }
+
+    public Flux<Veiculo> fetchByIds(List<String> ids) {
+        var distintos = new LinkedHashSet<>(ids);
+        if (distintos.size() > maxPageSize) {
+            return Flux.error(new BadRequestException(
+                String.format("Quantidade de IDs [%s] acima do limite [%s].", distintos.size(), maxPageSize)));
+        }
+
+        var emCache = veiculoCache.getAllPresent(distintos);
+        var faltantes = distintos.stream()
+            .filter(id -> !emCache.containsKey(id))
+            .toList();
+
+        return Flux.fromIterable(emCache.values())
+            .concatWith(repository.fetchByIds(faltantes));
+    }
+
+    private List<AlteracaoVeiculo> convertPatch(JsonPatch patch) {
+        JsonNode operacoes = objectMapper.valueToTree(patch);
+        var alteracoes = StreamSupport.stream(operacoes.spliterator(), false)
+            .map(this::convertOperacao)
+            .toList();
+
+        if (alteracoes.stream().allMatch(alteracao -> alteracao.getOperacao() == AlteracaoVeiculo.Operacao.TESTAR)) {
+            throw new BadRequestException("O patch não altera nenhum atributo.");
+        }
+        return alteracoes;
+    }
+
+    private AlteracaoVeiculo convertOperacao(JsonNode operacao) {
+        var op = operacao.path("op").asText();
+        var caminho = JsonPointer.compile(operacao.path("path").asText());
+        var campo = caminho.getMatchingProperty();
+        var chave = caminho.tail() == null ? null : caminho.tail().getMatchingProperty();
+
+        if (campo == null || !CAMPOS_ALTERAVEIS.contains(campo)
+            || (caminho.tail() != null && caminho.tail().tail() != null && !caminho.tail().tail().matches())) {
+            throw new BadRequestException(String.format("Caminho [%s] não pode ser alterado.", caminho));
+        } else if (campo.equals("opcionais") && chave == null) {
+            throw new BadRequestException("Opcionais devem ser alterados individualmente em /opcionais/{chave}.");
+        } else if (!campo.equals("opcionais") && chave != null) {
+            throw new BadRequestException(String.format("Caminho [%s] não pode ser alterado.", caminho));
+        }
+
+        var operacaoVeiculo = switch (op) {
+            case "add", "replace" -> AlteracaoVeiculo.Operacao.DEFINIR;
+            case "remove" -> AlteracaoVeiculo.Operacao.REMOVER;
+            case "test" -> AlteracaoVeiculo.Operacao.TESTAR;
+            default -> throw new BadRequestException(String.format("Operação [%s] não suportada.", op));
+        };
+        if (operacaoVeiculo == AlteracaoVeiculo.Operacao.REMOVER && chave == null) {
+            throw new BadRequestException(String.format("Atributo obrigatório [%s] não pode ser removido.", campo));
+        }
+
+        var valor = operacao.get("value");
+        if (operacaoVeiculo != AlteracaoVeiculo.Operacao.REMOVER && (valor == null || !valor.isValueNode() || valor.isNull())) {
+            throw new BadRequestException(String.format("Valor inválido para [%s].", caminho));
+        }
+
+        return ImmutableAlteracaoVeiculo.builder()
+            .operacao(operacaoVeiculo)
+            .campo(campo)
+            .chave(chave)
+            .valor(valor == null ? null : convertValor(campo, valor.asText()))
+            .build();
+    }
+
+    private String convertValor(String campo, String valor) {
+        if (campo.equals("valor")) {
+            try {
+                return new BigDecimal(valor).toPlainString();
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(String.format("Valor [%s] não é numérico.", valor), e);
+            }
+        }
+        return valor;
+    }
+
+    /**
+     * Vehicle ID of a sale confirmation, used to process confirmations of the same vehicle in order.
+     */
+    public String chaveConfirmacaoVenda(Message message) {
+        return readVeiculoQueueMessage(message).getId();
+    }
+
+    /**
+     * Sets {@code VENDIDO} and releases the vehicle's reservations in one transaction. A cancelled transaction fails
+     * the message, which is received again and re-planned from a fresh read of the reservations. {@code veiculoId}
+     * is the partition key already read by the consumer; the body is only parsed again when it is missing.
+     */
+    public Mono<Void> handleVeiculoConfirmacaoVenda(Message message, String veiculoId) {
+        return Mono.fromSupplier(() -> veiculoId != null ? veiculoId : readVeiculoQueueMessage(message).getId())
+            .flatMap(id -> reservaService.confirmarVenda(id)
+                .doOnSuccess(unused -> veiculoCache.invalidate(id))
+                .onErrorResume(NotFoundException.class, e -> {
+                    LOGGER.warn("sale confirmation discarded: {}", e.getMessage());
+                    return Mono.empty();
+                })
+            )
+            .then();
+    }
+
+    private VeiculoQueueMessage readVeiculoQueueMessage(Message message) {
+        try {
+            return objectMapper.readValue(message.body(), VeiculoQueueMessage.class);
+        } catch (JsonProcessingException e) {
+            throw new TechnicalException("Falha ao converter mensagem de atualização de veículo.", e);
+        }
     }
 }
@@ -43,8 +43,9 @@ public class ReservaController {
         return reservaService.deleteById(id);
     }
 
-    @GetMapping
-    @Operation(description = "Busca reservas")
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE,
+        MediaType.TEXT_EVENT_STREAM_VALUE})
+    @Operation(description = "Busca reservas. Com Accept NDJSON ou Server-Sent Events, cada reserva é enviada à medida que é lida")
     public Flux<ReservaDTO> fetch(@RequestParam(required = false) String veiculoId,
                                   @RequestParam(required = false) String placa,
                                   @RequestParam(required = false) String renavam,
@@ -1,17 +1,27 @@
 package io.fiap.revenda.veiculos.driver.controller;
 
+import com.github.fge.jsonpatch.JsonPatch;
+import io.fiap.revenda.veiculos.driven.domain.Pagina;
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.domain.mapper.ResultadoEscritaMapper;
 import io.fiap.revenda.veiculos.driven.domain.mapper.VeiculoMapper;
 import io.fiap.revenda.veiculos.driven.service.VeiculoService;
+import io.fiap.revenda.veiculos.driver.controller.dto.ResultadoEscritaDTO;
 import io.fiap.revenda.veiculos.driver.controller.dto.VeiculoDTO;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import java.math.BigDecimal;
+import java.util.List;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -21,12 +31,18 @@ import reactor.core.publisher.Mono;
 @RequestMapping(value = "/veiculos", produces = MediaType.APPLICATION_JSON_VALUE)
 public class VeiculoController {
 
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
     private final VeiculoService veiculoService;
     private final VeiculoMapper veiculoMapper;
+    private final ResultadoEscritaMapper resultadoEscritaMapper;
 
-    public VeiculoController(VeiculoService veiculoService, VeiculoMapper veiculoMapper) {
+    public VeiculoController(VeiculoService veiculoService,
+                             VeiculoMapper veiculoMapper,
+                             ResultadoEscritaMapper resultadoEscritaMapper) {
         this.veiculoService = veiculoService;
         this.veiculoMapper = veiculoMapper;
+        this.resultadoEscritaMapper = resultadoEscritaMapper;
     }
 
     @PostMapping
@@ -36,6 +52,19 @@ public class VeiculoController {
             .flatMap(veiculoService::save);
     }
 
+    @PostMapping(value = "/lote", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(description = "Importa veículos em lote a partir de um array JSON ou de NDJSON")
+    public Flux<ResultadoEscritaDTO> saveAll(@RequestBody Flux<VeiculoDTO> veiculos) {
+        return veiculoService.saveAll(veiculos.map(veiculoMapper::domainFromDto))
+            .map(resultadoEscritaMapper::dtoFromDomain);
+    }
+
+    @PatchMapping(value = "/{id}", consumes = {"application/json-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    @Operation(description = "Altera parcialmente um veículo a partir de um JSON Patch (RFC 6902)")
+    public Mono<Void> patch(@PathVariable String id, @RequestBody JsonPatch patch) {
+        return veiculoService.patch(id, patch);
+    }
+
     @DeleteMapping("/{id}")
     @Operation(description = "Deleta uma veículo por seu ID")
     public Mono<Void> deleteById(@PathVariable String id) {
@@ -43,16 +72,42 @@ public class VeiculoController {
     }
 
     @GetMapping("/vendidos")
-    @Operation(description = "Busca veículos vendidos")
-    public Flux<VeiculoDTO> fetchSold() {
-        return veiculoService.fetch(true)
+    @Operation(description = "Busca veículos vendidos. A próxima página é indicada no header " + CONTINUATION_TOKEN_HEADER)
+    public Mono<ResponseEntity<Flux<VeiculoDTO>>> fetchSold(@RequestParam(required = false) Integer pageSize,
+                                                            @RequestParam(required = false) String pageToken) {
+        return veiculoService.fetch(true, pageSize, pageToken)
+            .map(this::toResponse);
+    }
+
+    @GetMapping(params = "!ids")
+    @Operation(description = "Busca veículos disponíveis e sem reserva, ordenados por preço. A próxima página é indicada no header " + CONTINUATION_TOKEN_HEADER)
+    public Mono<ResponseEntity<Flux<VeiculoDTO>>> fetch(@RequestParam(required = false) Integer pageSize,
+                                                        @RequestParam(required = false) String pageToken,
+                                                        @RequestParam(required = false) BigDecimal precoMin,
+                                                        @RequestParam(required = false) BigDecimal precoMax) {
+        return veiculoService.fetch(false, pageSize, pageToken, precoMin, precoMax)
+            .map(this::toResponse);
+    }
+
+    @GetMapping(value = "/vendidos", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    @Operation(description = "Transmite todos os veículos vendidos em NDJSON ou Server-Sent Events, à medida que são lidos")
+    public Flux<VeiculoDTO> streamSold() {
+        return veiculoService.fetchAll(true, null, null)
             .map(veiculoMapper::dtoFromDomain);
     }
 
-    @GetMapping
-    @Operation(description = "Busca veículos disponíveis e sem reserva")
-    public Flux<VeiculoDTO> fetch() {
-        return veiculoService.fetch(false)
+    @GetMapping(params = "!ids", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    @Operation(description = "Transmite todos os veículos disponíveis e sem reserva, ordenados por preço, em NDJSON ou Server-Sent Events, à medida que são lidos")
+    public Flux<VeiculoDTO> stream(@RequestParam(required = false) BigDecimal precoMin,
+                                   @RequestParam(required = false) BigDecimal precoMax) {
+        return veiculoService.fetchAll(false, precoMin, precoMax)
+            .map(veiculoMapper::dtoFromDomain);
+    }
+
+    @GetMapping(params = "ids")
+    @Operation(description = "Busca vários veículos por seus IDs, separados por vírgula")
+    public Flux<VeiculoDTO> fetchByIds(@RequestParam List<String> ids) {
+        return veiculoService.fetchByIds(ids)
             .map(veiculoMapper::dtoFromDomain);
     }
 
@@ -62,4 +117,13 @@ public class VeiculoController {
         return veiculoService.fetchById(id)
             .map(veiculoMapper::dtoFromDomain);
     }
+
+    private ResponseEntity<Flux<VeiculoDTO>> toResponse(Pagina<Veiculo> pagina) {
+        var response = ResponseEntity.ok();
+        if (pagina.getProximaPagina() != null) {
+            response.header(CONTINUATION_TOKEN_HEADER, pagina.getProximaPagina());
+        }
+        return response.body(Flux.fromIterable(pagina.getItens())
+            .map(veiculoMapper::dtoFromDomain));
+    }
 }
@@ -0,0 +1,17 @@
+package io.fiap.revenda.veiculos.driver.controller.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@JsonSerialize(as = ImmutableResultadoEscritaDTO.class)
+@JsonDeserialize(as = ImmutableResultadoEscritaDTO.class)
+@Value.Immutable
+@Value.Style(privateNoargConstructor = true, jdkOnly = true)
+public abstract class ResultadoEscritaDTO {
+    public abstract String getId();
+    public abstract Boolean getSucesso();
+    @Nullable
+    public abstract String getErro();
+}
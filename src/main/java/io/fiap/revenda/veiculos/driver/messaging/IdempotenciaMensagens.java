@@ -0,0 +1,91 @@
+package io.fiap.revenda.veiculos.driver.messaging;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import io.fiap.revenda.veiculos.driven.repository.MensagemProcessadaRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Skips redeliveries of messages already handled. Recently processed message IDs are kept in a bounded local LRU;
+ * misses go to {@link MensagemProcessadaRepository}, whose conditional put lets a single delivery run the handler.
+ * Skipped duplicates are counted in {@code sqs.messages.duplicated}. Once the handler has succeeded the message is
+ * acknowledged even if it cannot be marked as processed: its record stays in progress until the lease expires.
+ */
+@Component
+public class IdempotenciaMensagens {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotenciaMensagens.class);
+
+    private final MensagemProcessadaRepository repository;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, Boolean> processadas;
+    private final Duration lease;
+    private final Duration retencao;
+
+    public IdempotenciaMensagens(MensagemProcessadaRepository repository,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${aws.sqs.idempotency.lease:900000}") String lease,
+                                 @Value("${aws.sqs.idempotency.retention:345600000}") String retencao,
+                                 @Value("${aws.sqs.idempotency.cache.maximumSize:100000}") String maximumSize) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.lease = Duration.ofMillis(Long.parseLong(lease));
+        this.retencao = Duration.ofMillis(Long.parseLong(retencao));
+        Cache<String, Boolean> processadas = Caffeine.newBuilder()
+            .maximumSize(Long.parseLong(maximumSize))
+            .expireAfterWrite(this.retencao)
+            .recordStats()
+            .build();
+        this.processadas = CaffeineCacheMetrics.monitor(meterRegistry, processadas, "mensagens-processadas");
+    }
+
+    public BiFunction<Message, String, Mono<Void>> proteger(String queue,
+                                                            BiFunction<Message, String, Mono<Void>> handler) {
+        var duplicadas = Counter.builder("sqs.messages.duplicated")
+            .tag("queue", queue)
+            .register(meterRegistry);
+
+        return (message, chave) -> {
+            var id = queue + ":" + message.messageId();
+            if (processadas.getIfPresent(id) != null) {
+                duplicadas.increment();
+                return Mono.empty();
+            }
+
+            return repository.iniciar(id, lease)
+                .flatMap(situacao -> switch (situacao) {
+                    case PROCESSADA -> {
+                        processadas.put(id, true);
+                        duplicadas.increment();
+                        LOGGER.info("duplicated message skipped: {}", message.messageId());
+                        yield Mono.<Void>empty();
+                    }
+                    case EM_ANDAMENTO -> Mono.<Void>error(new UnavailableException(
+                        String.format("Mensagem [%s] já está em processamento.", message.messageId())));
+                    case NOVA -> Mono.defer(() -> handler.apply(message, chave))
+                        .onErrorResume(throwable -> repository.cancelar(id)
+                            .onErrorResume(e -> Mono.empty())
+                            .then(Mono.error(throwable)))
+                        .then(Mono.defer(() -> {
+                            processadas.put(id, true);
+                            return repository.concluir(id, retencao)
+                                .onErrorResume(throwable -> {
+                                    LOGGER.error("message {} was processed but could not be marked as done",
+                                        message.messageId(), throwable);
+                                    return Mono.empty();
+                                });
+                        }));
+                });
+        };
+    }
+}
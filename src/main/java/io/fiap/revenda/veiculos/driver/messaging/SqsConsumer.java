@@ -0,0 +1,329 @@
+package io.fiap.revenda.veiculos.driver.messaging;
+
+import io.fiap.revenda.veiculos.driven.client.SqsMessageClient;
+import io.fiap.revenda.veiculos.driven.client.dto.ImmutableMensagemQuarentenaMessage;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+/**
+ * Continuous consumer of one queue: {@code pollers} long-polling receivers loop back-to-back and hand every
+ * message, with its partition key, to {@code handler}, deleting it once the handler completes. At most
+ * {@code concurrency} messages are in flight; a poller only asks SQS for as many messages as there are free slots
+ * and waits while there are none, so messages are never received just to sit in a local buffer.
+ *
+ * <p>With an {@link Escalonamento}, active pollers and concurrency follow the queue depth: they grow as soon as
+ * the backlog asks for it and shrink only after {@code reduzirApos} consecutive lower readings. An empty queue
+ * drops to {@code minPollers} pollers that wait {@code intervaloOcioso} between receives. Pollers above the
+ * active count check every {@code verificacaoInativo} whether they have been reactivated.
+ *
+ * <p>With a {@link Particionamento}, messages are spread by the hash of their key over a fixed number of serial
+ * lanes: messages with the same key are processed one after the other, different keys in parallel. The key is
+ * read once per message and passed to the handler; it is {@code null} without partitioning or when it cannot be
+ * read, in which case the message is routed by its ID.
+ *
+ * <p>A message whose handler fails only affects itself: it becomes visible again after a delay that doubles with
+ * each receive, and once it reaches {@code maxTentativas} it is moved, with the failure details, to the dead-letter
+ * queue when there is one. Transient failures ({@link UnavailableException} or AWS throttling) are only delayed:
+ * they never count towards the dead-letter queue.
+ */
+public class SqsConsumer implements Disposable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqsConsumer.class);
+    private static final Integer MAX_MESSAGES = 10;
+    private static final Duration AGUARDAR_VAGA = Duration.ofMillis(100);
+    private static final Duration AGUARDAR_ERRO = Duration.ofSeconds(1);
+
+    private final String queue;
+    private final SqsMessageClient messageClient;
+    private final BiFunction<Message, String, Mono<Void>> handler;
+    private final Integer maxPollers;
+    private final Integer maxMessages;
+    private final Escalonamento escalonamento;
+    private final Particionamento particionamento;
+    private final Reprocessamento reprocessamento;
+    private final AtomicInteger emProcessamento = new AtomicInteger();
+    private final Disposable.Composite assinaturas = Disposables.composite();
+
+    private volatile Boolean ativo = false;
+    private volatile Integer pollers;
+    private volatile Integer concurrency;
+    private volatile Duration intervaloOcioso = Duration.ZERO;
+    private Integer leiturasAbaixo = 0;
+
+    public SqsConsumer(String queue,
+                       SqsMessageClient messageClient,
+                       Integer pollers,
+                       Integer maxMessages,
+                       Integer concurrency,
+                       Escalonamento escalonamento,
+                       Particionamento particionamento,
+                       Reprocessamento reprocessamento,
+                       BiFunction<Message, String, Mono<Void>> handler) {
+        this.queue = queue;
+        this.messageClient = messageClient;
+        this.handler = handler;
+        this.escalonamento = escalonamento;
+        this.particionamento = particionamento;
+        this.reprocessamento = reprocessamento;
+        this.pollers = Math.max(1, pollers);
+        this.maxPollers = escalonamento == null ? this.pollers : Math.max(this.pollers, escalonamento.maxPollers());
+        this.maxMessages = Math.min(Math.max(1, maxMessages), MAX_MESSAGES);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public void start() {
+        ativo = true;
+        var mensagens = Flux.range(0, maxPollers)
+            .flatMap(this::poll, maxPollers);
+        var processamento = particionamento == null
+            ? mensagens.flatMap(message -> process(new Recebida(message, null)), Integer.MAX_VALUE)
+            : mensagens.map(message -> new Recebida(message, chave(message)))
+                .groupBy(this::lane, prefetchParticoes())
+                .flatMap(lane -> lane.concatMap(this::process, particionamento.laneDepth()), particionamento.lanes());
+        assinaturas.add(processamento.subscribe());
+
+        if (escalonamento != null) {
+            assinaturas.add(Flux.interval(Duration.ZERO, escalonamento.intervalo())
+                .concatMap(tick -> ajustar())
+                .subscribe());
+        }
+    }
+
+    public Integer getEmProcessamento() {
+        return emProcessamento.get();
+    }
+
+    public Integer getPollers() {
+        return pollers;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public void dispose() {
+        ativo = false;
+        assinaturas.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return !ativo;
+    }
+
+    private Flux<Message> poll(Integer poller) {
+        return Flux.defer(() -> {
+                if (poller >= pollers) {
+                    return Mono.delay(escalonamento.verificacaoInativo()).thenMany(Flux.<Message>empty());
+                }
+                var intervalo = intervaloOcioso;
+                return intervalo.isZero()
+                    ? receive()
+                    : Mono.delay(intervalo).thenMany(Flux.defer(this::receive));
+            })
+            .repeat(() -> ativo);
+    }
+
+    private Flux<Message> receive() {
+        var vagas = reservar();
+        if (vagas == 0) {
+            return Mono.delay(AGUARDAR_VAGA).thenMany(Flux.empty());
+        }
+        return messageClient.receive(queue, vagas)
+            .map(response -> response.hasMessages() ? response.messages() : List.<Message>of())
+            .defaultIfEmpty(List.of())
+            .doOnNext(messages -> liberar(vagas - messages.size()))
+            .doOnError(throwable -> liberar(vagas))
+            .flatMapIterable(Function.identity())
+            .onErrorResume(throwable -> {
+                LOGGER.error("an error occurred while receiving messages from {}", queue, throwable);
+                return Mono.delay(AGUARDAR_ERRO).thenMany(Flux.empty());
+            });
+    }
+
+    private Mono<Void> process(Recebida recebida) {
+        var message = recebida.message();
+        return Mono.defer(() -> handler.apply(message, recebida.chave()))
+            .thenReturn(true)
+            .onErrorResume(throwable -> handleFailure(message, throwable).thenReturn(false))
+            .flatMap(processada -> processada
+                ? messageClient.delete(queue, message).then()
+                : Mono.<Void>empty())
+            .doOnError(throwable -> LOGGER.error("an error occurred while settling message {}", message.messageId(),
+                throwable))
+            .onErrorResume(throwable -> Mono.empty())
+            .doFinally(signal -> {
+                messageClient.release(queue, message);
+                liberar(1);
+            })
+            .then();
+    }
+
+    private Mono<Void> handleFailure(Message message, Throwable throwable) {
+        var tentativas = messageClient.getReceiveCount(message);
+        LOGGER.error("an error occurred while processing message {} (attempt {})", message.messageId(), tentativas,
+            throwable);
+
+        if (tentativas >= reprocessamento.maxTentativas() && reprocessamento.deadLetterQueue() != null
+            && !isTransitoria(throwable)) {
+            return messageClient.send(reprocessamento.deadLetterQueue(), ImmutableMensagemQuarentenaMessage.builder()
+                    .queue(queue)
+                    .messageId(message.messageId())
+                    .body(message.body())
+                    .tentativas(tentativas)
+                    .erro(throwable.getClass().getName())
+                    .mensagemErro(throwable.getMessage())
+                    .falhouEm(Instant.now())
+                    .build())
+                .then(Mono.defer(() -> messageClient.delete(queue, message)))
+                .doOnSuccess(unused -> LOGGER.warn("message {} moved to {} after {} attempts", message.messageId(),
+                    reprocessamento.deadLetterQueue(), tentativas))
+                .then();
+        }
+        return messageClient.changeVisibility(queue, message, atraso(tentativas));
+    }
+
+    private Boolean isTransitoria(Throwable throwable) {
+        return throwable instanceof UnavailableException
+            || throwable instanceof AwsServiceException aws && aws.isThrottlingException();
+    }
+
+    private Duration atraso(Integer tentativas) {
+        var atraso = reprocessamento.atrasoBase().multipliedBy(1L << Math.min(tentativas - 1, 20));
+        return atraso.compareTo(reprocessamento.atrasoMaximo()) > 0 ? reprocessamento.atrasoMaximo() : atraso;
+    }
+
+    private String chave(Message message) {
+        try {
+            return particionamento.chave().apply(message);
+        } catch (RuntimeException e) {
+            LOGGER.warn("partition key of message {} could not be read: {}", message.messageId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Integer lane(Recebida recebida) {
+        var chave = recebida.chave() == null ? recebida.message().messageId() : recebida.chave();
+        return Math.floorMod(chave.hashCode(), particionamento.lanes());
+    }
+
+    /**
+     * The groupBy prefetch bounds the messages buffered across all lanes, so it must cover every lane at full depth
+     * and every in-flight slot; {@code laneDepth} alone would throttle the whole consumer to one lane's depth.
+     */
+    private Integer prefetchParticoes() {
+        var maxConcurrency = escalonamento == null
+            ? concurrency
+            : Math.max(concurrency, escalonamento.maxConcurrency());
+        return Math.max(particionamento.lanes() * particionamento.laneDepth(), maxConcurrency);
+    }
+
+    private Mono<Void> ajustar() {
+        return messageClient.getQueueAttributes(queue,
+                QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+            .doOnNext(atributos -> escalar(
+                Long.parseLong(atributos.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0")),
+                Long.parseLong(atributos.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0"))))
+            .doOnError(throwable -> LOGGER.error("an error occurred while reading attributes of {}", queue, throwable))
+            .onErrorResume(throwable -> Mono.empty())
+            .then();
+    }
+
+    private void escalar(Long visiveis, Long invisiveis) {
+        var ocioso = visiveis == 0 && invisiveis == 0;
+        var alvoPollers = ocioso
+            ? escalonamento.minPollers()
+            : limitar((visiveis + maxMessages - 1) / maxMessages, escalonamento.minPollers(), escalonamento.maxPollers());
+        var alvoConcurrency = ocioso
+            ? escalonamento.minConcurrency()
+            : limitar(visiveis + invisiveis, escalonamento.minConcurrency(), escalonamento.maxConcurrency());
+        var alvoIntervalo = ocioso ? escalonamento.intervaloOcioso() : Duration.ZERO;
+
+        var reduzir = alvoPollers < pollers || alvoConcurrency < concurrency
+            || (intervaloOcioso.isZero() && !alvoIntervalo.isZero());
+        leiturasAbaixo = reduzir ? leiturasAbaixo + 1 : 0;
+        var aplicarReducao = leiturasAbaixo >= escalonamento.reduzirApos();
+
+        var anteriorPollers = pollers;
+        var anteriorConcurrency = concurrency;
+        if (alvoPollers > pollers || aplicarReducao) {
+            pollers = alvoPollers;
+        }
+        if (alvoConcurrency > concurrency || aplicarReducao) {
+            concurrency = alvoConcurrency;
+        }
+        if (alvoIntervalo.isZero() || aplicarReducao) {
+            intervaloOcioso = alvoIntervalo;
+        }
+        if (aplicarReducao) {
+            leiturasAbaixo = 0;
+        }
+
+        if (!anteriorPollers.equals(pollers) || !anteriorConcurrency.equals(concurrency)) {
+            LOGGER.info("queue {} rescaled to {} pollers and concurrency {} (visible {}, in flight {})",
+                queue, pollers, concurrency, visiveis, invisiveis);
+        }
+    }
+
+    private Integer limitar(Long valor, Integer minimo, Integer maximo) {
+        return (int) Math.max(minimo, Math.min(maximo, valor));
+    }
+
+    private Integer reservar() {
+        while (true) {
+            var atual = emProcessamento.get();
+            var vagas = Math.min(maxMessages, concurrency - atual);
+            if (vagas <= 0) {
+                return 0;
+            }
+            if (emProcessamento.compareAndSet(atual, atual + vagas)) {
+                return vagas;
+            }
+        }
+    }
+
+    private void liberar(Integer vagas) {
+        if (vagas > 0) {
+            emProcessamento.addAndGet(-vagas);
+        }
+    }
+
+    private record Recebida(Message message, String chave) {
+    }
+
+    public record Escalonamento(Duration intervalo,
+                                Integer minPollers,
+                                Integer maxPollers,
+                                Integer minConcurrency,
+                                Integer maxConcurrency,
+                                Integer reduzirApos,
+                                Duration intervaloOcioso,
+                                Duration verificacaoInativo) {
+    }
+
+    public record Particionamento(Function<Message, String> chave,
+                                  Integer lanes,
+                                  Integer laneDepth) {
+    }
+
+    public record Reprocessamento(Integer maxTentativas,
+                                  Duration atrasoBase,
+                                  Duration atrasoMaximo,
+                                  String deadLetterQueue) {
+    }
+}
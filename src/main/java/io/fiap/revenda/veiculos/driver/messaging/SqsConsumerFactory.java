@@ -0,0 +1,87 @@
+package io.fiap.revenda.veiculos.driver.messaging;
+
+import io.fiap.revenda.veiculos.driven.client.SqsMessageClient;
+import java.time.Duration;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Builds {@link SqsConsumer}s from the {@code aws.sqs.<nome>.*} settings of each queue. With
+ * {@code aws.sqs.<nome>.idempotency} set, the handler only runs once per message ID.
+ */
+@Component
+public class SqsConsumerFactory {
+    private static final Long MAX_VISIBILITY = Duration.ofHours(12).toMillis();
+
+    private final SqsMessageClient messageClient;
+    private final IdempotenciaMensagens idempotencia;
+    private final Environment env;
+
+    public SqsConsumerFactory(SqsMessageClient messageClient, IdempotenciaMensagens idempotencia, Environment env) {
+        this.messageClient = messageClient;
+        this.idempotencia = idempotencia;
+        this.env = env;
+    }
+
+    public SqsConsumer create(String nome, Function<Message, Mono<Void>> handler) {
+        return create(nome, null, (message, chave) -> handler.apply(message));
+    }
+
+    /**
+     * Same as {@link #create(String, Function)}, with messages partitioned by {@code chave} over
+     * {@code aws.sqs.<nome>.lanes} serial lanes of depth {@code aws.sqs.<nome>.laneDepth}. The key is read once and
+     * handed to {@code handler} along with the message, {@code null} when it could not be read.
+     */
+    public SqsConsumer create(String nome,
+                              Function<Message, String> chave,
+                              BiFunction<Message, String, Mono<Void>> handler) {
+        var prefixo = "aws.sqs." + nome + ".";
+        var pollers = Integer.parseInt(env.getProperty(prefixo + "pollers", "1"));
+        var concurrency = Integer.parseInt(env.getProperty(prefixo + "concurrency", "10"));
+
+        SqsConsumer.Escalonamento escalonamento = null;
+        if (Boolean.parseBoolean(env.getProperty(prefixo + "autoscaling.enabled", "false"))) {
+            escalonamento = new SqsConsumer.Escalonamento(
+                Duration.ofMillis(Long.parseLong(env.getProperty(prefixo + "autoscaling.interval", "15000"))),
+                Integer.parseInt(env.getProperty(prefixo + "autoscaling.minPollers", "1")),
+                Integer.parseInt(env.getProperty(prefixo + "autoscaling.maxPollers", String.valueOf(pollers))),
+                Integer.parseInt(env.getProperty(prefixo + "autoscaling.minConcurrency", "1")),
+                Integer.parseInt(env.getProperty(prefixo + "autoscaling.maxConcurrency", String.valueOf(concurrency))),
+                Integer.parseInt(env.getProperty(prefixo + "autoscaling.scaleDownAfter", "3")),
+                Duration.ofMillis(Long.parseLong(env.getProperty(prefixo + "autoscaling.idleDelay", "20000"))),
+                Duration.ofMillis(Long.parseLong(env.getProperty(prefixo + "autoscaling.idleCheck", "1000"))));
+        }
+
+        SqsConsumer.Particionamento particionamento = null;
+        if (chave != null) {
+            particionamento = new SqsConsumer.Particionamento(chave,
+                Integer.parseInt(env.getProperty(prefixo + "lanes", "16")),
+                Integer.parseInt(env.getProperty(prefixo + "laneDepth", "4")));
+        }
+
+        var maxDelay = Math.min(Long.parseLong(env.getProperty(prefixo + "retry.maxDelay", "900000")), MAX_VISIBILITY);
+        var reprocessamento = new SqsConsumer.Reprocessamento(
+            Integer.parseInt(env.getProperty(prefixo + "retry.maxAttempts", "5")),
+            Duration.ofMillis(Long.parseLong(env.getProperty(prefixo + "retry.baseDelay", "5000"))),
+            Duration.ofMillis(maxDelay),
+            env.getProperty(prefixo + "deadLetterQueue"));
+
+        var queue = env.getRequiredProperty(prefixo + "queue");
+        var idempotente = Boolean.parseBoolean(env.getProperty(prefixo + "idempotency", "false"));
+
+        return new SqsConsumer(
+            queue,
+            messageClient,
+            pollers,
+            Integer.parseInt(env.getProperty(prefixo + "maxMessages", "10")),
+            concurrency,
+            escalonamento,
+            particionamento,
+            reprocessamento,
+            idempotente ? idempotencia.proteger(queue, handler) : handler);
+    }
+}
@@ -0,0 +1,82 @@
+package io.fiap.revenda.veiculos.driver.migration;
+
+import io.fiap.revenda.veiculos.driven.service.ReservaService;
+import io.fiap.revenda.veiculos.driven.service.VeiculoService;
+import java.util.List;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * One-off data migration job, started with {@code aws.dynamo.backfill.enabled} set (the chart's migration Job
+ * does so). The migrations run one after the other and the process then exits, before any queue consumer or
+ * expiry timer starts; a failed migration fails the startup with a non-zero exit code, so the Job retries it.
+ * <p>
+ * Every migration is an idempotent filtered scan, so the job can be run again at any time; once converged it
+ * writes nothing. Serving replicas never run it and tolerate unmigrated rows while
+ * {@code aws.dynamo.backfill.fallback} is on.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class BackfillRunner implements CommandLineRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackfillRunner.class);
+
+    private final Boolean enabled;
+    private final ApplicationContext context;
+    private final VeiculoService veiculoService;
+    private final ReservaService reservaService;
+
+    public BackfillRunner(@Value("${aws.dynamo.backfill.enabled:false}") String enabled,
+                          ApplicationContext context,
+                          VeiculoService veiculoService,
+                          ReservaService reservaService) {
+        this.enabled = Boolean.valueOf(enabled);
+        this.context = context;
+        this.veiculoService = veiculoService;
+        this.reservaService = reservaService;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+
+        Flux.fromIterable(migracoes())
+            .concatMap(this::executar)
+            .then()
+            .block();
+
+        LOGGER.info("data migrations finished, exiting");
+        System.exit(SpringApplication.exit(context));
+    }
+
+    private List<Migracao> migracoes() {
+        return List.of(
+            new Migracao("vehicles with VALOR converted to number", veiculoService::backfill),
+            new Migracao("reservations with person attributes copied", reservaService::backfill),
+            new Migracao("reservations with EXPIRA_EM_TTL converted to number", reservaService::backfillTtl),
+            new Migracao("vehicle claims created for active reservations", reservaService::backfillBloqueios),
+            new Migracao("vehicles marked with RESERVADO_ATE from their claims", reservaService::backfillReservadoAte));
+    }
+
+    private Mono<Long> executar(Migracao migracao) {
+        LOGGER.info("migration started: {}", migracao.descricao());
+        return Mono.defer(migracao.execucao())
+            .doOnNext(total -> LOGGER.info("migration finished: {} {}", total, migracao.descricao()))
+            .doOnError(throwable -> LOGGER.error("migration failed: {}", migracao.descricao(), throwable));
+    }
+
+    private record Migracao(String descricao, Supplier<Mono<Long>> execucao) {
+    }
+}
@@ -0,0 +1,142 @@
+package io.fiap.revenda.veiculos.driven.batch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+class MicroBatcherTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final List<List<String>> lotes = new CopyOnWriteArrayList<>();
+    private MicroBatcher<String, String> batcher;
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.dispose();
+        }
+    }
+
+    @Test
+    void coalescesConcurrentKeysIntoOneLoad() {
+        batcher = batcher(keys -> Mono.just(keys.stream()
+            .filter(key -> !key.equals("ausente"))
+            .collect(Collectors.toMap(Function.identity(), String::toUpperCase))));
+
+        StepVerifier.create(Mono.zip(
+                batcher.load("a"),
+                batcher.load("a"),
+                batcher.load("b"),
+                batcher.load("ausente").defaultIfEmpty("vazio")))
+            .assertNext(valores -> {
+                assertThat(valores.getT1()).isEqualTo("A");
+                assertThat(valores.getT2()).isEqualTo("A");
+                assertThat(valores.getT3()).isEqualTo("B");
+                assertThat(valores.getT4()).isEqualTo("vazio");
+            })
+            .expectComplete()
+            .verify(TIMEOUT);
+
+        assertThat(lotes).hasSize(1);
+        assertThat(lotes.get(0)).containsExactly("a", "b", "ausente");
+    }
+
+    @Test
+    void flushesWhenTheBatchIsFull() {
+        batcher = new MicroBatcher<>(2, Duration.ofMinutes(1), 1, keys -> {
+            lotes.add(keys);
+            return Mono.just(keys.stream().collect(Collectors.toMap(Function.identity(), Function.identity())));
+        });
+
+        StepVerifier.create(Mono.zip(batcher.load("a"), batcher.load("b")))
+            .expectNextCount(1)
+            .expectComplete()
+            .verify(TIMEOUT);
+
+        assertThat(lotes).containsExactly(List.of("a", "b"));
+    }
+
+    @Test
+    void queuesKeysLoadedConcurrentlyFromManyThreads() {
+        batcher = batcher(keys -> Mono.just(keys.stream()
+            .collect(Collectors.toMap(Function.identity(), String::toUpperCase))));
+
+        StepVerifier.create(Flux.range(0, 2000)
+                .parallel(8)
+                .runOn(Schedulers.parallel())
+                .flatMap(i -> batcher.load("k" + i))
+                .sequential()
+                .collectList())
+            .assertNext(valores -> assertThat(valores).hasSize(2000).doesNotHaveDuplicates())
+            .expectComplete()
+            .verify(TIMEOUT);
+
+        assertThat(lotes.stream().mapToInt(List::size).sum()).isEqualTo(2000);
+    }
+
+    @Test
+    void failsEveryKeyOfAFailedLoadAndLoadsThemAgainLater() {
+        var falhar = new boolean[] {true};
+        batcher = batcher(keys -> falhar[0]
+            ? Mono.<Map<String, String>>error(new IllegalStateException("falhou"))
+            : Mono.just(Map.of("a", "A")));
+
+        StepVerifier.create(batcher.load("a"))
+            .expectErrorMessage("falhou")
+            .verify(TIMEOUT);
+
+        falhar[0] = false;
+        StepVerifier.create(batcher.load("a"))
+            .expectNext("A")
+            .expectComplete()
+            .verify(TIMEOUT);
+
+        assertThat(lotes).hasSize(2);
+    }
+
+    @Test
+    void failsInsteadOfHangingWhenTheKeyCannotBeQueued() {
+        batcher = batcher(keys -> Mono.just(Map.of()));
+        batcher.dispose();
+
+        StepVerifier.create(batcher.load("a"))
+            .expectError(IllegalStateException.class)
+            .verify(TIMEOUT);
+        StepVerifier.create(batcher.load("a"))
+            .expectError(IllegalStateException.class)
+            .verify(TIMEOUT);
+
+        assertThat(lotes).isEmpty();
+    }
+
+    @Test
+    void failsKeysStillPendingWhenDisposed() {
+        batcher = new MicroBatcher<>(10, Duration.ofMinutes(1), 1, keys -> Mono.just(Map.of()));
+
+        var pendente = batcher.load("a").toFuture();
+        batcher.dispose();
+
+        StepVerifier.create(Mono.fromFuture(pendente))
+            .expectError(IllegalStateException.class)
+            .verify(TIMEOUT);
+    }
+
+    private MicroBatcher<String, String> batcher(Function<List<String>, Mono<Map<String, String>>> loader) {
+        return new MicroBatcher<>(10, Duration.ofMillis(50), 2, keys -> {
+            lotes.add(keys);
+            return loader.apply(keys);
+        });
+    }
+}
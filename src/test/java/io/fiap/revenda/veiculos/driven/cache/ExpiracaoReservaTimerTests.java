@@ -0,0 +1,91 @@
+package io.fiap.revenda.veiculos.driven.cache;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.crypto.CriptografiaPessoa;
+import io.fiap.revenda.veiculos.driven.domain.Calendario;
+import io.fiap.revenda.veiculos.driven.event.ReservaExpiradaEvent;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import io.fiap.revenda.veiculos.driven.repository.ReservaRepository;
+import io.fiap.revenda.veiculos.driven.service.ReservaService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class ExpiracaoReservaTimerTests {
+
+    private static final long TIMEOUT = 5000;
+
+    private final ReservaRepository repository = mock(ReservaRepository.class);
+    private ExpiracaoReservaTimer timer;
+
+    @BeforeEach
+    void setUp() {
+        var service = new AtomicReference<ReservaService>();
+        timer = new ExpiracaoReservaTimer(event -> service.get().onReservaExpirada((ReservaExpiradaEvent) event),
+            repository, "10", "8");
+        service.set(new ReservaService(repository, timer, mock(CriptografiaPessoa.class), new ObjectMapper(),
+            "false", "3", "10", "20"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.destroy();
+    }
+
+    @Test
+    void purgesAReservationOnceItsExpiryDayEnds() {
+        when(repository.deleteById(anyString())).thenReturn(Mono.empty());
+
+        timer.agendar("r1", "v1", Calendario.hoje().minusDays(1));
+
+        verify(repository, timeout(TIMEOUT)).deleteById("r1");
+    }
+
+    @Test
+    void leavesCancelledAndRescheduledReservationsAlone() {
+        when(repository.deleteById(anyString())).thenReturn(Mono.empty());
+
+        timer.agendar("r1", "v1", Calendario.hoje().minusDays(1));
+        timer.agendar("r1", "v1", Calendario.hoje().plusDays(1));
+        timer.agendar("r2", "v2", Calendario.hoje().minusDays(1));
+        timer.cancelar("r2");
+        timer.agendar("r3", "v3", Calendario.hoje().minusDays(1));
+
+        verify(repository, timeout(TIMEOUT)).deleteById("r3");
+        verify(repository, after(100).never()).deleteById("r1");
+        verify(repository, never()).deleteById("r2");
+    }
+
+    @Test
+    void retriesAPurgeCancelledByAConcurrentWrite() {
+        var tentativas = new AtomicInteger();
+        when(repository.deleteById("r1")).thenReturn(Mono.defer(() -> tentativas.incrementAndGet() < 3
+            ? Mono.error(new UnavailableException("Reservas alteradas durante a exclusão, tente novamente."))
+            : Mono.empty()));
+
+        timer.agendar("r1", "v1", Calendario.hoje().minusDays(1));
+
+        verify(repository, timeout(TIMEOUT).times(3)).deleteById("r1");
+    }
+
+    @Test
+    void doesNotRetryOtherFailures() {
+        when(repository.deleteById("r1")).thenReturn(Mono.error(new IllegalStateException("falha")));
+
+        timer.agendar("r1", "v1", Calendario.hoje().minusDays(1));
+
+        verify(repository, timeout(TIMEOUT)).deleteById("r1");
+        verify(repository, after(200).times(1)).deleteById("r1");
+    }
+}
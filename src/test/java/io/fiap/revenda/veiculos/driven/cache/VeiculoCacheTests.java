@@ -0,0 +1,116 @@
+package io.fiap.revenda.veiculos.driven.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+class VeiculoCacheTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Veiculo veiculo = mock(Veiculo.class);
+    private final AtomicInteger carregamentos = new AtomicInteger();
+    private VeiculoCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new VeiculoCache(meterRegistry, "100", "60000");
+    }
+
+    @Test
+    void loadsAMissOnceAndServesTheNextReadsFromTheCache() {
+        StepVerifier.create(cache.get("v1", carregar(Mono.just(veiculo))))
+            .expectNext(veiculo)
+            .verifyComplete();
+        StepVerifier.create(cache.get("v1", carregar(Mono.just(veiculo))))
+            .expectNext(veiculo)
+            .verifyComplete();
+
+        assertThat(carregamentos.get()).isEqualTo(1);
+        assertThat(leituras("hit")).isEqualTo(1.0);
+        assertThat(leituras("miss")).isEqualTo(1.0);
+    }
+
+    @Test
+    void sharesAConcurrentLoadOfTheSameVehicle() {
+        var carregado = Sinks.<Veiculo>one();
+
+        var primeira = cache.get("v1", carregar(carregado.asMono())).toFuture();
+        var segunda = cache.get("v1", carregar(carregado.asMono())).toFuture();
+        carregado.tryEmitValue(veiculo);
+
+        assertThat(primeira.join()).isSameAs(veiculo);
+        assertThat(segunda.join()).isSameAs(veiculo);
+        assertThat(carregamentos.get()).isEqualTo(1);
+    }
+
+    @Test
+    void neverCachesAMissingVehicle() {
+        StepVerifier.create(cache.get("v1", carregar(Mono.empty())))
+            .verifyComplete();
+        StepVerifier.create(cache.get("v1", carregar(Mono.just(veiculo))))
+            .expectNext(veiculo)
+            .verifyComplete();
+
+        assertThat(carregamentos.get()).isEqualTo(2);
+    }
+
+    @Test
+    void reloadsAVehicleAfterItIsInvalidated() {
+        cache.get("v1", carregar(Mono.just(veiculo))).block();
+
+        cache.invalidate("v1");
+
+        assertThat(cache.getAllPresent(List.of("v1"))).isEmpty();
+        cache.get("v1", carregar(Mono.just(veiculo))).block();
+        assertThat(carregamentos.get()).isEqualTo(2);
+    }
+
+    @Test
+    void discardsALoadStillInFlightWhenInvalidated() {
+        var carregado = Sinks.<Veiculo>one();
+        var primeira = cache.get("v1", carregar(carregado.asMono())).toFuture();
+
+        cache.invalidate("v1");
+        carregado.tryEmitValue(veiculo);
+
+        assertThat(primeira.join()).isSameAs(veiculo);
+        assertThat(cache.getAllPresent(List.of("v1"))).isEmpty();
+        cache.get("v1", carregar(Mono.just(veiculo))).block();
+        assertThat(carregamentos.get()).isEqualTo(2);
+    }
+
+    @Test
+    void returnsOnlyTheVehiclesAlreadyLoaded() {
+        cache.get("v1", carregar(Mono.just(veiculo))).block();
+
+        assertThat(cache.getAllPresent(List.of("v1", "v2")))
+            .containsOnlyKeys("v1")
+            .containsEntry("v1", veiculo);
+        assertThat(carregamentos.get()).isEqualTo(1);
+    }
+
+    private Function<String, Mono<Veiculo>> carregar(Mono<Veiculo> resultado) {
+        return id -> {
+            carregamentos.incrementAndGet();
+            return resultado;
+        };
+    }
+
+    private Double leituras(String resultado) {
+        return meterRegistry.get("cache.gets")
+            .tag("cache", "veiculos")
+            .tag("result", resultado)
+            .functionCounter()
+            .count();
+    }
+}
@@ -0,0 +1,314 @@
+package io.fiap.revenda.veiculos.driven.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.verification.VerificationMode;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+class SqsMessageClientTests {
+
+    private static final String QUEUE = "fila";
+
+    private final SqsAsyncClient sqsClient = mock(SqsAsyncClient.class);
+    private SqsMessageClient messageClient;
+
+    @BeforeEach
+    void setUp() {
+        when(sqsClient.getQueueUrl(any(GetQueueUrlRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            GetQueueUrlResponse.builder().queueUrl("http://sqs/" + QUEUE).build()));
+
+        messageClient = new SqsMessageClient(sqsClient, new ObjectMapper(), new SimpleMeterRegistry(),
+            "10", "0", "30", "20", "4", "20", "4", "50", "60000", "900000");
+    }
+
+    @AfterEach
+    void tearDown() {
+        messageClient.destroy();
+    }
+
+    @Test
+    void acknowledgesMessagesInSharedBatchesOfUpTo10() {
+        excluir();
+
+        StepVerifier.create(Flux.range(0, 12)
+                .flatMap(i -> messageClient.delete(QUEUE, mensagem(String.valueOf(i))))
+                .collectList())
+            .assertNext(resultados -> assertThat(resultados).hasSize(12)
+                .allMatch(ResultadoMensagem::isSucesso))
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqsClient, times(2)).deleteMessageBatch(captor.capture());
+        assertThat(captor.getAllValues())
+            .allSatisfy(request -> assertThat(request.queueUrl()).isEqualTo("http://sqs/" + QUEUE))
+            .extracting(request -> request.entries().size())
+            .containsExactlyInAnyOrder(10, 2);
+        verify(sqsClient, times(1)).getQueueUrl(any(GetQueueUrlRequest.class));
+    }
+
+    @Test
+    void reportsAFailedAcknowledgementOnlyForItsMessage() {
+        excluir();
+
+        StepVerifier.create(Flux.just(mensagem("1"), mensagem("invalida"))
+                .flatMapSequential(message -> messageClient.delete(QUEUE, message))
+                .collectList())
+            .assertNext(resultados -> {
+                assertThat(resultados.get(0)).isEqualTo(ResultadoMensagem.sucesso("1"));
+                assertThat(resultados.get(1).isSucesso()).isFalse();
+                assertThat(resultados.get(1).id()).isEqualTo("invalida");
+                assertThat(resultados.get(1).erro()).startsWith("ReceiptHandleIsInvalid");
+            })
+            .verifyComplete();
+    }
+
+    @Test
+    void sendsInRequestsOfUpTo10EntriesKeepingThePayloadOrder() {
+        enviar();
+
+        StepVerifier.create(messageClient.sendBatch(QUEUE, Flux.range(0, 25)).collectList())
+            .assertNext(resultados -> assertThat(resultados)
+                .extracting(ResultadoMensagem::id)
+                .containsExactlyElementsOf(IntStream.range(0, 25).mapToObj(i -> "m-" + i).toList()))
+            .verifyComplete();
+
+        assertThat(envios())
+            .allSatisfy(request -> assertThat(request.entries()).hasSizeLessThanOrEqualTo(10))
+            .extracting(request -> request.entries().size())
+            .containsExactlyInAnyOrder(10, 10, 5);
+    }
+
+    @Test
+    void splitsABatchThatWouldExceed256KB() {
+        enviar();
+        var corpo = "x".repeat(100 * 1024);
+
+        StepVerifier.create(messageClient.sendBatch(QUEUE, Flux.just(corpo, corpo, corpo)).collectList())
+            .assertNext(resultados -> assertThat(resultados).hasSize(3)
+                .allMatch(ResultadoMensagem::isSucesso))
+            .verifyComplete();
+
+        assertThat(envios())
+            .allSatisfy(request -> assertThat(request.entries().stream()
+                .mapToInt(entry -> entry.messageBody().getBytes(StandardCharsets.UTF_8).length)
+                .sum()).isLessThanOrEqualTo(256 * 1024))
+            .extracting(request -> request.entries().size())
+            .containsExactlyInAnyOrder(2, 1);
+    }
+
+    @Test
+    void failsAnOversizedPayloadWithoutSendingIt() {
+        enviar();
+
+        StepVerifier.create(messageClient.sendBatch(QUEUE, Flux.just("x".repeat(300 * 1024), "ok")).collectList())
+            .assertNext(resultados -> {
+                assertThat(resultados.get(0).isSucesso()).isFalse();
+                assertThat(resultados.get(0).erro()).isEqualTo("Mensagem excede o tamanho máximo de 256 KB.");
+                assertThat(resultados.get(1)).isEqualTo(ResultadoMensagem.sucesso("m-\"ok\""));
+            })
+            .verifyComplete();
+
+        assertThat(envios()).singleElement()
+            .satisfies(request -> assertThat(request.entries()).hasSize(1));
+    }
+
+    @Test
+    void failsEachPayloadOfARequestThatFailsAsAWhole() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(SqsException.builder().message("indisponível").build()));
+
+        StepVerifier.create(messageClient.sendBatch(QUEUE, Flux.range(0, 3)).collectList())
+            .assertNext(resultados -> {
+                assertThat(resultados).hasSize(3)
+                    .allSatisfy(resultado -> assertThat(resultado.erro()).startsWith("indisponível"));
+                assertThat(resultados).extracting(ResultadoMensagem::id).doesNotHaveDuplicates();
+            })
+            .verifyComplete();
+    }
+
+    @Test
+    void reportsAFailedSendAsAnError() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(SqsException.builder().message("indisponível").build()));
+
+        StepVerifier.create(messageClient.send(QUEUE, 1))
+            .expectError(TechnicalException.class)
+            .verify();
+    }
+
+    @Test
+    void extendsTheVisibilityOfMessagesStillInFlightOnly() {
+        receber(mensagem("1"), mensagem("2"), mensagem("3"));
+        estender();
+        excluir();
+
+        messageClient.receive(QUEUE).block();
+        messageClient.delete(QUEUE, mensagem("1")).block();
+        messageClient.release(QUEUE, mensagem("2"));
+        messageClient.start();
+
+        assertThat(extensoes(timeout(1000).atLeast(2)))
+            .allSatisfy(request -> {
+                assertThat(request.queueUrl()).isEqualTo("http://sqs/" + QUEUE);
+                assertThat(request.entries())
+                    .extracting(ChangeMessageVisibilityBatchRequestEntry::receiptHandle)
+                    .containsExactly("handle-3");
+                assertThat(request.entries())
+                    .extracting(ChangeMessageVisibilityBatchRequestEntry::visibilityTimeout)
+                    .containsOnly(30);
+            });
+    }
+
+    @Test
+    void stopsExtendingAMessageWhoseExtensionFailed() {
+        receber(mensagem("1"), mensagem("invalida"));
+        estender();
+
+        messageClient.receive(QUEUE).block();
+        messageClient.start();
+
+        var extensoes = extensoes(timeout(1000).atLeast(3));
+        assertThat(extensoes.get(0).entries())
+            .extracting(ChangeMessageVisibilityBatchRequestEntry::receiptHandle)
+            .containsExactlyInAnyOrder("handle-1", "handle-invalida");
+        assertThat(extensoes.subList(1, extensoes.size()))
+            .allSatisfy(request -> assertThat(request.entries())
+                .extracting(ChangeMessageVisibilityBatchRequestEntry::receiptHandle)
+                .containsExactly("handle-1"));
+    }
+
+    @Test
+    void stopsExtendingAMessageHeldBeyondTheMaximumExtension() {
+        messageClient.destroy();
+        messageClient = new SqsMessageClient(sqsClient, new ObjectMapper(), new SimpleMeterRegistry(),
+            "10", "0", "30", "20", "4", "20", "4", "50", "60000", "0");
+        receber(mensagem("1"));
+        estender();
+
+        messageClient.receive(QUEUE).block();
+        messageClient.start();
+
+        verify(sqsClient, after(300).never())
+            .changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+    }
+
+    private void receber(Message... messages) {
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            ReceiveMessageResponse.builder().messages(messages).build()));
+    }
+
+    private void estender() {
+        when(sqsClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+            .thenAnswer(invocation -> {
+                ChangeMessageVisibilityBatchRequest request = invocation.getArgument(0);
+                return CompletableFuture.completedFuture(ChangeMessageVisibilityBatchResponse.builder()
+                    .successful(request.entries().stream()
+                        .filter(entry -> !entry.receiptHandle().equals("handle-invalida"))
+                        .map(entry -> ChangeMessageVisibilityBatchResultEntry.builder().id(entry.id()).build())
+                        .toList())
+                    .failed(request.entries().stream()
+                        .filter(entry -> entry.receiptHandle().equals("handle-invalida"))
+                        .map(entry -> BatchResultErrorEntry.builder()
+                            .id(entry.id())
+                            .code("ReceiptHandleIsInvalid")
+                            .senderFault(true)
+                            .build())
+                        .toList())
+                    .build());
+            });
+    }
+
+    private List<ChangeMessageVisibilityBatchRequest> extensoes(VerificationMode modo) {
+        var captor = ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(sqsClient, modo).changeMessageVisibilityBatch(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private void enviar() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            SendMessageBatchRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(SendMessageBatchResponse.builder()
+                .successful(request.entries().stream()
+                    .map(entry -> SendMessageBatchResultEntry.builder()
+                        .id(entry.id())
+                        .messageId("m-" + entry.messageBody())
+                        .build())
+                    .toList())
+                .build());
+        });
+    }
+
+    private List<SendMessageBatchRequest> envios() {
+        var captor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, atLeastOnce()).sendMessageBatch(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private void excluir() {
+        when(sqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenAnswer(invocation -> {
+            DeleteMessageBatchRequest request = invocation.getArgument(0);
+            var response = DeleteMessageBatchResponse.builder()
+                .successful(request.entries().stream()
+                    .filter(entry -> !entry.receiptHandle().equals("handle-invalida"))
+                    .map(entry -> DeleteMessageBatchResultEntry.builder().id(entry.id()).build())
+                    .toList())
+                .failed(request.entries().stream()
+                    .filter(entry -> entry.receiptHandle().equals("handle-invalida"))
+                    .map(entry -> BatchResultErrorEntry.builder()
+                        .id(entry.id())
+                        .code("ReceiptHandleIsInvalid")
+                        .message("The receipt handle is not valid.")
+                        .senderFault(true)
+                        .build())
+                    .toList())
+                .build();
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    private Message mensagem(String id) {
+        return Message.builder()
+            .messageId(id)
+            .receiptHandle("handle-" + id)
+            .body(id)
+            .build();
+    }
+}
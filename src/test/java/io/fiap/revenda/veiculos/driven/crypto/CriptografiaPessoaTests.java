@@ -0,0 +1,137 @@
+package io.fiap.revenda.veiculos.driven.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.fiap.revenda.veiculos.driven.repository.ChavePessoaRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+
+class CriptografiaPessoaTests {
+
+    private final DynamoDbAsyncClient client = mock(DynamoDbAsyncClient.class);
+    private final Map<String, Map<String, AttributeValue>> armazenadas = new HashMap<>();
+    private CriptografiaPessoa criptografia;
+
+    @BeforeEach
+    void setUp() {
+        when(client.getItem(any(GetItemRequest.class))).thenAnswer(invocation -> {
+            GetItemRequest request = invocation.getArgument(0);
+            var item = armazenadas.get(request.key().get("ID").s());
+            return CompletableFuture.completedFuture(item == null
+                ? GetItemResponse.builder().build()
+                : GetItemResponse.builder().item(item).build());
+        });
+        when(client.putItem(any(PutItemRequest.class))).thenAnswer(invocation -> {
+            PutItemRequest request = invocation.getArgument(0);
+            if (armazenadas.putIfAbsent(request.item().get("ID").s(), request.item()) != null) {
+                return CompletableFuture.failedFuture(ConditionalCheckFailedException.builder().build());
+            }
+            return CompletableFuture.completedFuture(PutItemResponse.builder().build());
+        });
+        when(client.deleteItem(any(DeleteItemRequest.class))).thenAnswer(invocation -> {
+            DeleteItemRequest request = invocation.getArgument(0);
+            armazenadas.remove(request.key().get("ID").s());
+            return CompletableFuture.completedFuture(DeleteItemResponse.builder().build());
+        });
+
+        criptografia = new CriptografiaPessoa(new ChavePessoaRepository(client), new SimpleMeterRegistry(),
+            "true", "segredo", "100", "60000");
+    }
+
+    @Test
+    void decryptsWhatItEncryptedUnderThePersonKey() {
+        var escrita = criptografia.chaveParaEscrita("p1").block();
+        var cifrado = criptografia.cifrar(escrita, "12345678900");
+
+        assertThat(cifrado).isNotEqualTo("12345678900")
+            .isNotEqualTo(criptografia.cifrar(escrita, "12345678900"));
+
+        StepVerifier.create(criptografia.chaveParaLeitura(escrita.id(), escrita.versao()))
+            .assertNext(leitura -> assertThat(criptografia.decifrar(leitura.orElseThrow(), cifrado))
+                .isEqualTo("12345678900"))
+            .verifyComplete();
+    }
+
+    @Test
+    void reusesTheStoredKeyOfAPerson() {
+        var primeira = criptografia.chaveParaEscrita("p1").block();
+        var segunda = criptografia.chaveParaEscrita("p1").block();
+
+        assertThat(segunda.versao()).isEqualTo(primeira.versao());
+        assertThat(criptografia.decifrar(segunda, criptografia.cifrar(primeira, "p1"))).isEqualTo("p1");
+        verify(client, times(1)).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    void readsNoKeyForRowsOfAShreddedPerson() {
+        var escrita = criptografia.chaveParaEscrita("p1").block();
+        criptografia.chaveParaLeitura(escrita.id(), escrita.versao()).block();
+
+        StepVerifier.create(criptografia.fragmentar("p1"))
+            .verifyComplete();
+
+        assertThat(armazenadas).doesNotContainKey(escrita.id());
+        StepVerifier.create(criptografia.chaveParaLeitura(escrita.id(), escrita.versao()))
+            .expectNext(Optional.empty())
+            .verifyComplete();
+    }
+
+    @Test
+    void readsNoKeyForRowsWrittenBeforeTheKeyWasRecreated() {
+        var antiga = criptografia.chaveParaEscrita("p1").block();
+        criptografia.fragmentar("p1").block();
+        var nova = criptografia.chaveParaEscrita("p1").block();
+
+        assertThat(nova.id()).isEqualTo(antiga.id());
+        assertThat(nova.versao()).isNotEqualTo(antiga.versao());
+        StepVerifier.create(criptografia.chaveParaLeitura(antiga.id(), antiga.versao()))
+            .expectNext(Optional.empty())
+            .verifyComplete();
+        StepVerifier.create(criptografia.chaveParaLeitura(nova.id(), nova.versao()))
+            .assertNext(leitura -> assertThat(leitura).isPresent())
+            .verifyComplete();
+    }
+
+    @Test
+    void neverCachesAMissingKey() {
+        var id = criptografia.chaveId("p1");
+
+        StepVerifier.create(criptografia.chaveParaLeitura(id, "v1"))
+            .expectNext(Optional.empty())
+            .verifyComplete();
+
+        armazenadas.put(id, Map.of(
+            "ID", AttributeValue.fromS(id),
+            "VERSAO", AttributeValue.fromS("v1"),
+            "CHAVE", AttributeValue.fromB(SdkBytes.fromByteArray(new byte[32]))));
+
+        StepVerifier.create(criptografia.chaveParaLeitura(id, "v1"))
+            .assertNext(leitura -> assertThat(leitura).isPresent())
+            .verifyComplete();
+        StepVerifier.create(criptografia.chaveParaLeitura(id, "v1"))
+            .assertNext(leitura -> assertThat(leitura).isPresent())
+            .verifyComplete();
+        verify(client, times(2)).getItem(any(GetItemRequest.class));
+    }
+}
@@ -0,0 +1,66 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+class PaginaTokenConverterTests {
+
+    private final PaginaTokenConverter converter = new PaginaTokenConverter(new ObjectMapper());
+
+    @Test
+    void encodesAndDecodesStringAndNumberKeys() {
+        var chave = Map.of(
+            "ID", AttributeValue.fromS("veiculo-1"),
+            "VENDIDO", AttributeValue.fromS("false"),
+            "VALOR", AttributeValue.fromN("45000.50"));
+
+        var token = converter.encode(chave);
+
+        assertThat(token).doesNotContain("=", "+", "/");
+        assertThat(converter.decode(token)).isEqualTo(chave);
+    }
+
+    @Test
+    void emptyKeyHasNoToken() {
+        assertThat(converter.encode(null)).isNull();
+        assertThat(converter.encode(Map.of())).isNull();
+    }
+
+    @Test
+    void blankTokenStartsFromTheFirstPage() {
+        assertThat(converter.decode(null)).isNull();
+        assertThat(converter.decode(" ")).isNull();
+    }
+
+    @Test
+    void rejectsTokensThatAreNotBase64() {
+        assertThatThrownBy(() -> converter.decode("não é um token"))
+            .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void rejectsTokensThatAreNotAKey() {
+        var token = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("[1,2,3]".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> converter.decode(token))
+            .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void rejectsUnsupportedAttributeTypes() {
+        var token = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("{\"ID\":{\"B\":\"AAAA\"}}".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> converter.decode(token))
+            .isInstanceOf(BadRequestException.class);
+    }
+}
@@ -0,0 +1,484 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.fiap.revenda.veiculos.driven.crypto.ChavePessoa;
+import io.fiap.revenda.veiculos.driven.crypto.CriptografiaPessoa;
+import io.fiap.revenda.veiculos.driven.domain.Calendario;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableDocumento;
+import io.fiap.revenda.veiculos.driven.domain.ImmutablePessoa;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableReserva;
+import io.fiap.revenda.veiculos.driven.domain.Reserva;
+import io.fiap.revenda.veiculos.driven.exception.DuplicatedKeyException;
+import io.fiap.revenda.veiculos.driven.exception.NotFoundException;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+class ReservaRepositoryTests {
+
+    private static final LocalDate EXPIRA_EM = LocalDate.of(2030, 1, 10);
+
+    private final DynamoDbAsyncClient client = mock(DynamoDbAsyncClient.class);
+    private final CriptografiaPessoa criptografia = mock(CriptografiaPessoa.class);
+    private final Map<String, Map<String, AttributeValue>> armazenados = new HashMap<>();
+    private ReservaRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new ReservaRepository(client,
+            new DynamoBatchOperations(client, "1", "0", "1"),
+            criptografia,
+            "1",
+            "10");
+    }
+
+    @Test
+    void writesClaimReservationAndMarkerInOneTransaction() {
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(TransactWriteItemsResponse.builder().build()));
+
+        StepVerifier.create(repository.save(reserva()))
+            .assertNext(salva -> {
+                assertThat(salva.getId()).isNotBlank();
+                assertThat(salva.getCodigo()).isNotBlank();
+            })
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(client).transactWriteItems(captor.capture());
+        var itens = captor.getValue().transactItems();
+        assertThat(itens).hasSize(3);
+
+        var bloqueio = itens.get(0).put();
+        assertThat(bloqueio.tableName()).isEqualTo("veiculos_reservas_bloqueios_tb");
+        assertThat(bloqueio.item()).containsEntry("VEICULO_ID", AttributeValue.fromS("v1"))
+            .containsEntry("EXPIRA_EM", AttributeValue.fromN(String.valueOf(EXPIRA_EM.toEpochDay())));
+        assertThat(bloqueio.conditionExpression()).isEqualTo("attribute_not_exists(#veiculo) OR #expira < :hoje");
+
+        var linha = itens.get(1).put();
+        assertThat(linha.tableName()).isEqualTo("veiculos_reservas_tb");
+        assertThat(linha.conditionExpression()).isEqualTo("attribute_not_exists(#id)");
+        assertThat(linha.item().get("ID")).isEqualTo(bloqueio.item().get("RESERVA_ID"));
+        assertThat(linha.item()).containsEntry("PESSOA_ID", AttributeValue.fromS("p1"));
+
+        var marcador = itens.get(2).update();
+        assertThat(marcador.tableName()).isEqualTo("veiculos_tb");
+        assertThat(marcador.updateExpression()).isEqualTo("SET #reservadoAte = :expira, #reserva = :reserva");
+        assertThat(marcador.conditionExpression()).isEqualTo("attribute_exists(#id)");
+        assertThat(marcador.expressionAttributeValues()).containsEntry(":reserva", linha.item().get("ID"));
+    }
+
+    @Test
+    void rejectsAReservationOfAClaimedVehicle() {
+        cancelar("ConditionalCheckFailed", "None", "None");
+
+        StepVerifier.create(repository.save(reserva()))
+            .expectError(DuplicatedKeyException.class)
+            .verify();
+    }
+
+    @Test
+    void rejectsAReservationOfAMissingVehicle() {
+        cancelar("None", "None", "ConditionalCheckFailed");
+
+        StepVerifier.create(repository.save(reserva()))
+            .expectError(NotFoundException.class)
+            .verify();
+    }
+
+    @Test
+    void reportsAConflictingReservationAsUnavailable() {
+        cancelar("TransactionConflict", "None", "None");
+
+        StepVerifier.create(repository.save(reserva()))
+            .expectError(UnavailableException.class)
+            .verify();
+    }
+
+    @Test
+    void deletesTheReservationWithItsClaimAndMarkerInOneTransaction() {
+        armazenados.put("veiculos_reservas_tb/r1", Map.of("VEICULO_ID", AttributeValue.fromS("v1")));
+        armazenados.put("veiculos_reservas_bloqueios_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r1")));
+        armazenados.put("veiculos_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r1")));
+        confirmar();
+
+        StepVerifier.create(repository.deleteById("r1"))
+            .verifyComplete();
+
+        var transacoes = transacoes(1);
+        assertThat(transacoes.get(0)).hasSize(3);
+        assertThat(transacoes.get(0).get(0).delete().tableName()).isEqualTo("veiculos_reservas_tb");
+        assertThat(transacoes.get(0).get(1).delete().tableName()).isEqualTo("veiculos_reservas_bloqueios_tb");
+        assertThat(transacoes.get(0).get(1).delete().conditionExpression()).isEqualTo("#reserva = :reserva");
+        assertThat(transacoes.get(0).get(2).update().tableName()).isEqualTo("veiculos_tb");
+        assertThat(transacoes.get(0).get(2).update().updateExpression())
+            .isEqualTo("REMOVE #reservadoAte, #reserva");
+    }
+
+    @Test
+    void leavesAClaimHeldByAnotherReservation() {
+        armazenados.put("veiculos_reservas_tb/r1", Map.of("VEICULO_ID", AttributeValue.fromS("v1")));
+        armazenados.put("veiculos_reservas_bloqueios_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r2")));
+        armazenados.put("veiculos_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r2")));
+        confirmar();
+
+        StepVerifier.create(repository.deleteById("r1"))
+            .verifyComplete();
+
+        var transacoes = transacoes(1);
+        assertThat(transacoes.get(0)).hasSize(1);
+        assertThat(transacoes.get(0).get(0).delete().key()).isEqualTo(Map.of("ID", AttributeValue.fromS("r1")));
+    }
+
+    @Test
+    void ignoresTheDeletionOfAMissingReservation() {
+        confirmar();
+
+        StepVerifier.create(repository.deleteById("r1"))
+            .verifyComplete();
+
+        verify(client, never()).transactWriteItems(any(TransactWriteItemsRequest.class));
+    }
+
+    @Test
+    void reportsAClaimTakenDuringTheDeletionAsUnavailable() {
+        armazenados.put("veiculos_reservas_tb/r1", Map.of("VEICULO_ID", AttributeValue.fromS("v1")));
+        armazenados.put("veiculos_reservas_bloqueios_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r1")));
+        cancelar("None", "ConditionalCheckFailed");
+
+        StepVerifier.create(repository.deleteById("r1"))
+            .expectError(UnavailableException.class)
+            .verify();
+    }
+
+    @Test
+    void chunksErasureIntoTransactionsWithoutSplittingAReservation() {
+        var reservas = IntStream.range(0, 40)
+            .mapToObj(i -> {
+                armazenados.put("veiculos_reservas_bloqueios_tb/v" + i,
+                    Map.of("RESERVA_ID", AttributeValue.fromS("r" + i)));
+                armazenados.put("veiculos_tb/v" + i, Map.of("RESERVA_ID", AttributeValue.fromS("r" + i)));
+                return (Reserva) ImmutableReserva.copyOf(reserva()).withId("r" + i).withVeiculoId("v" + i);
+            })
+            .toList();
+        confirmar();
+
+        StepVerifier.create(repository.deleteAll(reservas))
+            .verifyComplete();
+
+        var transacoes = transacoes(2);
+        assertThat(transacoes).extracting(List::size).containsExactlyInAnyOrder(99, 21);
+    }
+
+    @Test
+    void keepsTheClaimHolderInTheSaleTransactionWhenItIsBeyondTheSlice() {
+        armazenados.put("veiculos_reservas_bloqueios_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r119")));
+        indexar(IntStream.range(0, 120).mapToObj(i -> "r" + i).toList());
+        confirmar();
+
+        StepVerifier.create(repository.confirmarVenda("v1"))
+            .assertNext(ids -> assertThat(ids).hasSize(120).startsWith("r119"))
+            .verifyComplete();
+
+        verify(client).batchWriteItem(any(BatchWriteItemRequest.class));
+        var itens = transacoes(1).get(0);
+        assertThat(itens).hasSize(100);
+        assertThat(itens.get(0).update().updateExpression())
+            .isEqualTo("SET #vendido = :vendido REMOVE #reservadoAte, #reserva");
+        assertThat(itens.get(1).delete().conditionExpression()).isEqualTo("#reserva = :reserva");
+        assertThat(itens.get(1).delete().expressionAttributeValues())
+            .containsEntry(":reserva", AttributeValue.fromS("r119"));
+        assertThat(itens.get(2).delete().key()).isEqualTo(Map.of("ID", AttributeValue.fromS("r119")));
+    }
+
+    @Test
+    void releasesAnOrphanedClaimOnSale() {
+        armazenados.put("veiculos_reservas_bloqueios_tb/v1", Map.of("RESERVA_ID", AttributeValue.fromS("r9")));
+        indexar(List.of("r1"));
+        confirmar();
+
+        StepVerifier.create(repository.confirmarVenda("v1"))
+            .assertNext(ids -> assertThat(ids).containsExactly("r9", "r1"))
+            .verifyComplete();
+
+        var itens = transacoes(1).get(0);
+        assertThat(itens).hasSize(4);
+        assertThat(itens.get(1).delete().expressionAttributeValues())
+            .containsEntry(":reserva", AttributeValue.fromS("r9"));
+        assertThat(itens.get(2).delete().key()).isEqualTo(Map.of("ID", AttributeValue.fromS("r9")));
+        assertThat(itens.get(3).delete().key()).isEqualTo(Map.of("ID", AttributeValue.fromS("r1")));
+    }
+
+    @Test
+    void sellsAnUnclaimedVehicleOnlyWhileItStaysUnclaimed() {
+        indexar(List.of());
+        confirmar();
+
+        StepVerifier.create(repository.confirmarVenda("v1"))
+            .assertNext(ids -> assertThat(ids).isEmpty())
+            .verifyComplete();
+
+        var itens = transacoes(1).get(0);
+        assertThat(itens).hasSize(2);
+        assertThat(itens.get(1).delete().conditionExpression()).isEqualTo("attribute_not_exists(#veiculo)");
+    }
+
+    @Test
+    void reportsTheSaleOfAMissingVehicleAsNotFound() {
+        indexar(List.of("r1"));
+        cancelar("ConditionalCheckFailed", "None", "None");
+
+        StepVerifier.create(repository.confirmarVenda("v1"))
+            .expectError(NotFoundException.class)
+            .verify();
+    }
+
+    @Test
+    void reportsAClaimTakenDuringTheSaleAsUnavailable() {
+        indexar(List.of());
+        cancelar("None", "ConditionalCheckFailed");
+
+        StepVerifier.create(repository.confirmarVenda("v1"))
+            .expectError(UnavailableException.class)
+            .verify();
+    }
+
+    @Test
+    void findsAnUnexpiredReservationThroughTheVehicleIndex() {
+        expiracoes(Calendario.hoje().minusDays(1), Calendario.hoje());
+
+        StepVerifier.create(repository.existeReservaAtiva("v1"))
+            .expectNext(true)
+            .verifyComplete();
+    }
+
+    @Test
+    void ignoresExpiredReservationsThroughTheVehicleIndex() {
+        expiracoes(Calendario.hoje().minusDays(1));
+
+        StepVerifier.create(repository.existeReservaAtiva("v1"))
+            .expectNext(false)
+            .verifyComplete();
+    }
+
+    @Test
+    void scansEverySegmentInParallelPagingThroughEachOne() {
+        repository = new ReservaRepository(client,
+            new DynamoBatchOperations(client, "1", "0", "1"),
+            criptografia,
+            "3",
+            "2");
+        paginar(3);
+
+        StepVerifier.create(repository.fetch().map(Reserva::getId).collectList())
+            .assertNext(ids -> assertThat(ids).containsExactlyInAnyOrder(
+                "0-0", "0-1", "0-2", "1-0", "1-1", "1-2", "2-0", "2-1", "2-2"))
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(client, times(6)).scan(captor.capture());
+        assertThat(captor.getAllValues())
+            .allSatisfy(request -> {
+                assertThat(request.totalSegments()).isEqualTo(3);
+                assertThat(request.limit()).isEqualTo(2);
+            })
+            .extracting(ScanRequest::segment)
+            .containsExactlyInAnyOrder(0, 0, 1, 1, 2, 2);
+    }
+
+    @Test
+    void scansWithoutSegmentsWhenConfiguredWithOne() {
+        paginar(1);
+
+        StepVerifier.create(repository.fetch().map(Reserva::getId))
+            .expectNext("0-0", "0-1", "0-2")
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(client, times(2)).scan(captor.capture());
+        assertThat(captor.getAllValues())
+            .allSatisfy(request -> {
+                assertThat(request.segment()).isNull();
+                assertThat(request.totalSegments()).isNull();
+            });
+    }
+
+    @Test
+    void decryptsThePersonOfARowWrittenUnderAKey() {
+        linhaCifrada();
+        var chave = new ChavePessoa("k1", "1", null);
+        when(criptografia.chaveParaLeitura("k1", "1")).thenReturn(Mono.just(Optional.of(chave)));
+        when(criptografia.decifrar(chave, "cifrado-id")).thenReturn("p1");
+        when(criptografia.decifrar(chave, "cifrado-documento")).thenReturn("12345678900");
+
+        StepVerifier.create(repository.fetchByVeiculoId("v1"))
+            .assertNext(reserva -> {
+                assertThat(reserva.getPessoa().getId()).isEqualTo("p1");
+                assertThat(reserva.getPessoa().getDocumento().getValor()).isEqualTo("12345678900");
+            })
+            .verifyComplete();
+    }
+
+    @Test
+    void anonymisesThePersonOfARowWhoseKeyWasShredded() {
+        linhaCifrada();
+        when(criptografia.chaveParaLeitura("k1", "1")).thenReturn(Mono.just(Optional.empty()));
+
+        StepVerifier.create(repository.fetchByVeiculoId("v1"))
+            .assertNext(reserva -> {
+                assertThat(reserva.getPessoa().getId()).isEqualTo(CriptografiaPessoa.ANONIMIZADO);
+                assertThat(reserva.getPessoa().getDocumento().getValor()).isEqualTo(CriptografiaPessoa.ANONIMIZADO);
+                assertThat(reserva.getPessoa().getDocumento().getTipo()).isEqualTo("CPF");
+                assertThat(reserva.getVeiculoId()).isEqualTo("v1");
+            })
+            .verifyComplete();
+        verify(criptografia, never()).decifrar(any(), any());
+    }
+
+    private void paginar(Integer segmentos) {
+        when(client.scanPaginator(any(ScanRequest.class))).thenCallRealMethod();
+        when(client.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            var segmento = request.segment() == null ? 0 : request.segment();
+            var resposta = request.hasExclusiveStartKey()
+                ? ScanResponse.builder()
+                    .items(linha(segmento + "-2", "p1", "12345678900"))
+                : ScanResponse.builder()
+                    .items(linha(segmento + "-0", "p1", "12345678900"), linha(segmento + "-1", "p1", "12345678900"))
+                    .lastEvaluatedKey(Map.of("ID", AttributeValue.fromS(segmento + "-1")));
+            return CompletableFuture.completedFuture(resposta.build());
+        });
+    }
+
+    private void linhaCifrada() {
+        var linha = new HashMap<>(linha("r1", "cifrado-id", "cifrado-documento"));
+        linha.put("CHAVE_ID", AttributeValue.fromS("k1"));
+        linha.put("CHAVE_VERSAO", AttributeValue.fromS("1"));
+
+        when(client.queryPaginator(any(QueryRequest.class))).thenCallRealMethod();
+        when(client.query(any(QueryRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            QueryResponse.builder()
+                .items(linha)
+                .build()));
+    }
+
+    private Map<String, AttributeValue> linha(String id, String pessoaId, String documento) {
+        return Map.of(
+            "ID", AttributeValue.fromS(id),
+            "VEICULO_ID", AttributeValue.fromS("v1"),
+            "VEICULO_PLACA", AttributeValue.fromS("ABC1D23"),
+            "VEICULO_RENAVAM", AttributeValue.fromS("12345678900"),
+            "CODIGO", AttributeValue.fromS("c-" + id),
+            "PESSOA", AttributeValue.fromM(Map.of(
+                "ID", AttributeValue.fromS(pessoaId),
+                "DOCUMENTO", AttributeValue.fromM(Map.of(
+                    "TIPO", AttributeValue.fromS("CPF"),
+                    "VALOR", AttributeValue.fromS(documento))))),
+            "RESERVADO_EM", AttributeValue.fromS(String.valueOf(EXPIRA_EM.minusDays(3).toEpochDay())),
+            "EXPIRA_EM", AttributeValue.fromS(String.valueOf(EXPIRA_EM.toEpochDay())));
+    }
+
+    private void expiracoes(LocalDate... datas) {
+        when(client.queryPaginator(any(QueryRequest.class))).thenCallRealMethod();
+        when(client.query(any(QueryRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            QueryResponse.builder()
+                .items(Arrays.stream(datas)
+                    .map(data -> Map.of("EXPIRA_EM", AttributeValue.fromS(String.valueOf(data.toEpochDay()))))
+                    .toList())
+                .build()));
+    }
+
+    private void indexar(List<String> ids) {
+        when(client.queryPaginator(any(QueryRequest.class))).thenCallRealMethod();
+        when(client.query(any(QueryRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            QueryResponse.builder()
+                .items(ids.stream().map(id -> Map.of("ID", AttributeValue.fromS(id))).toList())
+                .build()));
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()));
+    }
+
+    private void confirmar() {
+        ler();
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(TransactWriteItemsResponse.builder().build()));
+    }
+
+    private List<List<TransactWriteItem>> transacoes(Integer quantidade) {
+        var captor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(client, times(quantidade)).transactWriteItems(captor.capture());
+        return captor.getAllValues().stream()
+            .map(TransactWriteItemsRequest::transactItems)
+            .toList();
+    }
+
+    private void cancelar(String... codigos) {
+        ler();
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(TransactionCanceledException.builder()
+                .cancellationReasons(Arrays.stream(codigos)
+                    .map(codigo -> CancellationReason.builder().code(codigo).build())
+                    .toList())
+                .build()));
+    }
+
+    private void ler() {
+        when(client.getItem(any(GetItemRequest.class))).thenAnswer(invocation -> {
+            GetItemRequest request = invocation.getArgument(0);
+            var item = armazenados.get(request.tableName() + "/" + request.key().values().iterator().next().s());
+            return CompletableFuture.completedFuture(item == null
+                ? GetItemResponse.builder().build()
+                : GetItemResponse.builder().item(item).build());
+        });
+    }
+
+    private Reserva reserva() {
+        return ImmutableReserva.builder()
+            .veiculoId("v1")
+            .veiculoPlaca("ABC1D23")
+            .veiculoRenavam("12345678900")
+            .pessoa(ImmutablePessoa.builder()
+                .id("p1")
+                .documento(ImmutableDocumento.builder()
+                    .tipo("CPF")
+                    .valor("12345678900")
+                    .build())
+                .build())
+            .reservadoEm(EXPIRA_EM.minusDays(3))
+            .expiraEm(EXPIRA_EM)
+            .build();
+    }
+}
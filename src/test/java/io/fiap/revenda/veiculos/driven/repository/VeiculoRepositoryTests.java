@@ -0,0 +1,364 @@
+package io.fiap.revenda.veiculos.driven.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.domain.AlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableAlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ResultadoEscrita;
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.exception.BusinessException;
+import io.fiap.revenda.veiculos.driven.exception.NotFoundException;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+class VeiculoRepositoryTests {
+
+    private final DynamoDbAsyncClient client = mock(DynamoDbAsyncClient.class);
+    private VeiculoRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new VeiculoRepository(client,
+            new PaginaTokenConverter(new ObjectMapper()),
+            new DynamoBatchOperations(client, "1", "0", "1"),
+            "5");
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.destroy();
+    }
+
+    @Test
+    void translatesChangesIntoOneUpdateExpression() {
+        when(client.updateItem(any(UpdateItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(UpdateItemResponse.builder().build()));
+
+        StepVerifier.create(repository.patch("v1", List.of(
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "valor", null, "45000.50"),
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "opcionais", "teto", "solar"),
+                alteracao(AlteracaoVeiculo.Operacao.REMOVER, "opcionais", "som", null),
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "cor", null, "preto"),
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "valor", null, "50000"),
+                alteracao(AlteracaoVeiculo.Operacao.TESTAR, "placa", null, "ABC1D23"))))
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(client).updateItem(captor.capture());
+        var request = captor.getValue();
+
+        assertThat(request.tableName()).isEqualTo("veiculos_tb");
+        assertThat(request.key()).isEqualTo(Map.of("ID", AttributeValue.fromS("v1")));
+        assertThat(request.updateExpression())
+            .isEqualTo("SET #OPCIONAIS.#k0 = :v0, #COR = :v2, #VALOR = :v3 REMOVE #OPCIONAIS.#k1");
+        assertThat(request.conditionExpression()).isEqualTo("attribute_exists(#ID) AND #PLACA = :v4");
+        assertThat(request.expressionAttributeNames()).isEqualTo(Map.of(
+            "#ID", "ID",
+            "#OPCIONAIS", "OPCIONAIS",
+            "#k0", "teto",
+            "#k1", "som",
+            "#COR", "COR",
+            "#VALOR", "VALOR",
+            "#PLACA", "PLACA"));
+        assertThat(request.expressionAttributeValues()).isEqualTo(Map.of(
+            ":v0", AttributeValue.fromS("solar"),
+            ":v2", AttributeValue.fromS("preto"),
+            ":v3", AttributeValue.fromN("50000"),
+            ":v4", AttributeValue.fromS("ABC1D23")));
+    }
+
+    @Test
+    void removalsOnlyOmitExpressionValues() {
+        when(client.updateItem(any(UpdateItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(UpdateItemResponse.builder().build()));
+
+        StepVerifier.create(repository.patch("v1", List.of(
+                alteracao(AlteracaoVeiculo.Operacao.REMOVER, "opcionais", "som", null))))
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(client).updateItem(captor.capture());
+        assertThat(captor.getValue().updateExpression()).isEqualTo("REMOVE #OPCIONAIS.#k0");
+        assertThat(captor.getValue().hasExpressionAttributeValues()).isFalse();
+    }
+
+    @Test
+    void failedTestOnAnExistingVehicleIsABusinessError() {
+        when(client.updateItem(any(UpdateItemRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(ConditionalCheckFailedException.builder()
+                .item(Map.of("ID", AttributeValue.fromS("v1")))
+                .build()));
+
+        StepVerifier.create(repository.patch("v1", List.of(
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "cor", null, "preto"),
+                alteracao(AlteracaoVeiculo.Operacao.TESTAR, "placa", null, "ABC1D23"))))
+            .expectError(BusinessException.class)
+            .verify();
+    }
+
+    @Test
+    void failedConditionWithoutItemIsNotFound() {
+        when(client.updateItem(any(UpdateItemRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(ConditionalCheckFailedException.builder().build()));
+
+        StepVerifier.create(repository.patch("v1", List.of(
+                alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "cor", null, "preto"))))
+            .expectError(NotFoundException.class)
+            .verify();
+    }
+
+    @Test
+    void importsNewVehiclesInBatchesOf25() {
+        existentes();
+        gravar(BatchWriteItemResponse.builder().build());
+
+        StepVerifier.create(repository.saveAll(Flux.range(0, 30).map(i -> veiculo("v" + i, "50000"))).collectList())
+            .assertNext(resultados -> assertThat(resultados).hasSize(30).allMatch(ResultadoEscrita::getSucesso))
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(client, times(2)).batchWriteItem(captor.capture());
+        assertThat(captor.getAllValues())
+            .extracting(request -> request.requestItems().get("veiculos_tb").size())
+            .containsExactlyInAnyOrder(25, 5);
+        verify(client, times(2)).batchGetItem(any(BatchGetItemRequest.class));
+    }
+
+    @Test
+    void retriesUnprocessedVehiclesAndFailsOnlyThoseLeftOver() {
+        repository.destroy();
+        repository = new VeiculoRepository(client,
+            new PaginaTokenConverter(new ObjectMapper()),
+            new DynamoBatchOperations(client, "1", "1", "1"),
+            "5");
+        existentes();
+        gravar(BatchWriteItemResponse.builder()
+            .unprocessedItems(Map.of("veiculos_tb", List.of(WriteRequest.builder()
+                .putRequest(put -> put.item(Map.of("ID", AttributeValue.fromS("v2"))))
+                .build())))
+            .build());
+
+        StepVerifier.create(repository.saveAll(Flux.just(veiculo("v1", "50000"), veiculo("v2", "60000")))
+                .collectMap(ResultadoEscrita::getId))
+            .assertNext(resultados -> {
+                assertThat(resultados.get("v1").getSucesso()).isTrue();
+                assertThat(resultados.get("v2").getSucesso()).isFalse();
+                assertThat(resultados.get("v2").getErro()).isEqualTo("Item não processado após todas as tentativas.");
+            })
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(client, times(2)).batchWriteItem(captor.capture());
+        assertThat(captor.getAllValues().get(1).requestItems().get("veiculos_tb")).hasSize(1);
+    }
+
+    @Test
+    void updatesExistingVehiclesWithoutTouchingTheSaleOrTheReservation() {
+        existentes("v1");
+        gravar(BatchWriteItemResponse.builder().build());
+        when(client.updateItem(any(UpdateItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(UpdateItemResponse.builder().build()));
+
+        StepVerifier.create(repository.saveAll(Flux.just(veiculo("v1", "50000"), veiculo("v2", "60000"))))
+            .expectNextCount(2)
+            .verifyComplete();
+
+        var atualizacao = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(client).updateItem(atualizacao.capture());
+        assertThat(atualizacao.getValue().key()).isEqualTo(Map.of("ID", AttributeValue.fromS("v1")));
+        assertThat(atualizacao.getValue().conditionExpression()).isEqualTo("attribute_exists(#ID)");
+        assertThat(atualizacao.getValue().expressionAttributeNames())
+            .containsEntry("#VALOR", "VALOR")
+            .doesNotContainValue("VENDIDO")
+            .doesNotContainValue("RESERVADO_ATE")
+            .doesNotContainValue("RESERVA_ID");
+        assertThat(atualizacao.getValue().expressionAttributeValues())
+            .containsEntry(":VALOR", AttributeValue.fromN("50000"));
+
+        var criacao = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(client).batchWriteItem(criacao.capture());
+        assertThat(criacao.getValue().requestItems().get("veiculos_tb"))
+            .extracting(request -> request.putRequest().item().get("ID").s())
+            .containsExactly("v2");
+    }
+
+    @Test
+    void failsOnlyTheVehicleWithANonNumericValor() {
+        existentes();
+        gravar(BatchWriteItemResponse.builder().build());
+
+        StepVerifier.create(repository.saveAll(Flux.just(veiculo("v1", "caro"), veiculo("v2", "60000")))
+                .collectMap(ResultadoEscrita::getId))
+            .assertNext(resultados -> {
+                assertThat(resultados.get("v1").getSucesso()).isFalse();
+                assertThat(resultados.get("v1").getErro()).isEqualTo("Valor [caro] não é numérico.");
+                assertThat(resultados.get("v2").getSucesso()).isTrue();
+            })
+            .verifyComplete();
+    }
+
+    @Test
+    void failsEveryVehicleOfABatchWhoseRequestFails() {
+        existentes();
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("indisponível")));
+
+        StepVerifier.create(repository.saveAll(Flux.just(veiculo("v1", "50000"), veiculo("v2", "60000"))).collectList())
+            .assertNext(resultados -> assertThat(resultados)
+                .extracting(ResultadoEscrita::getId, ResultadoEscrita::getSucesso, ResultadoEscrita::getErro)
+                .containsExactly(tuple("v1", false, "indisponível"), tuple("v2", false, "indisponível")))
+            .verifyComplete();
+        verify(client, never()).updateItem(any(UpdateItemRequest.class));
+    }
+
+    @Test
+    void readsVehiclesInChunksOf100Keys() {
+        existentes(IntStream.range(0, 150).mapToObj(i -> "v" + i).toArray(String[]::new));
+
+        StepVerifier.create(repository.fetchByIds(IntStream.range(0, 150).mapToObj(i -> "v" + i).toList()))
+            .expectNextCount(150)
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(client, times(2)).batchGetItem(captor.capture());
+        assertThat(captor.getAllValues())
+            .extracting(request -> request.requestItems().get("veiculos_tb").keys().size())
+            .containsExactlyInAnyOrder(100, 50);
+    }
+
+    @Test
+    void retriesUnprocessedKeys() {
+        repository.destroy();
+        repository = new VeiculoRepository(client,
+            new PaginaTokenConverter(new ObjectMapper()),
+            new DynamoBatchOperations(client, "1", "1", "1"),
+            "5");
+        when(client.batchGetItem(any(BatchGetItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(BatchGetItemResponse.builder()
+                .responses(Map.of("veiculos_tb", List.of(item("v1"))))
+                .unprocessedKeys(Map.of("veiculos_tb", KeysAndAttributes.builder()
+                    .keys(Map.of("ID", AttributeValue.fromS("v2")))
+                    .build()))
+                .build()))
+            .thenReturn(CompletableFuture.completedFuture(BatchGetItemResponse.builder()
+                .responses(Map.of("veiculos_tb", List.of(item("v2"))))
+                .build()));
+
+        StepVerifier.create(repository.fetchByIds(List.of("v1", "v2")).map(Veiculo::getId))
+            .expectNext("v1", "v2")
+            .verifyComplete();
+
+        var captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(client, times(2)).batchGetItem(captor.capture());
+        assertThat(captor.getAllValues().get(1).requestItems().get("veiculos_tb").keys())
+            .containsExactly(Map.of("ID", AttributeValue.fromS("v2")));
+    }
+
+    @Test
+    void failsWhenKeysStayUnprocessed() {
+        when(client.batchGetItem(any(BatchGetItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(BatchGetItemResponse.builder()
+                .responses(Map.of("veiculos_tb", List.of(item("v1"))))
+                .unprocessedKeys(Map.of("veiculos_tb", KeysAndAttributes.builder()
+                    .keys(Map.of("ID", AttributeValue.fromS("v2")))
+                    .build()))
+                .build()));
+
+        StepVerifier.create(repository.fetchByIds(List.of("v1", "v2")).map(Veiculo::getId))
+            .expectNext("v1")
+            .expectError(UnavailableException.class)
+            .verify();
+    }
+
+    private void existentes(String... ids) {
+        var armazenados = Set.of(ids);
+        when(client.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(BatchGetItemResponse.builder()
+                .responses(Map.of("veiculos_tb", request.requestItems().get("veiculos_tb").keys()
+                    .stream()
+                    .filter(key -> armazenados.contains(key.get("ID").s()))
+                    .map(key -> item(key.get("ID").s()))
+                    .toList()))
+                .build());
+        });
+    }
+
+    private void gravar(BatchWriteItemResponse resposta) {
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(resposta));
+    }
+
+    private Map<String, AttributeValue> item(String id) {
+        return Map.ofEntries(
+            Map.entry("ID", AttributeValue.fromS(id)),
+            Map.entry("ANO", AttributeValue.fromS("2020")),
+            Map.entry("COR", AttributeValue.fromS("preto")),
+            Map.entry("MARCA", AttributeValue.fromS("Fiat")),
+            Map.entry("PLACA", AttributeValue.fromS("ABC1D23")),
+            Map.entry("CAMBIO", AttributeValue.fromS("manual")),
+            Map.entry("MODELO", AttributeValue.fromS("Uno")),
+            Map.entry("RENAVAM", AttributeValue.fromS("12345678900")),
+            Map.entry("VALOR", AttributeValue.fromN("50000")),
+            Map.entry("VENDIDO", AttributeValue.fromS("false")),
+            Map.entry("MOTORIZACAO", AttributeValue.fromS("1.0")),
+            Map.entry("QUILOMETRAGEM", AttributeValue.fromS("10000")),
+            Map.entry("OPCIONAIS", AttributeValue.fromM(Map.of())));
+    }
+
+    private Veiculo veiculo(String id, String valor) {
+        return ImmutableVeiculo.builder()
+            .id(id)
+            .ano("2020")
+            .cor("preto")
+            .valor(valor)
+            .placa("ABC1D23")
+            .marca("Fiat")
+            .cambio("manual")
+            .modelo("Uno")
+            .renavam("12345678900")
+            .vendido(false)
+            .motorizacao("1.0")
+            .quilometragem("10000")
+            .build();
+    }
+
+    private AlteracaoVeiculo alteracao(AlteracaoVeiculo.Operacao operacao, String campo, String chave, String valor) {
+        return ImmutableAlteracaoVeiculo.builder()
+            .operacao(operacao)
+            .campo(campo)
+            .chave(chave)
+            .valor(valor)
+            .build();
+    }
+}
@@ -0,0 +1,157 @@
+package io.fiap.revenda.veiculos.driven.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fiap.revenda.veiculos.driven.cache.ExpiracaoReservaTimer;
+import io.fiap.revenda.veiculos.driven.client.dto.ImmutablePessoaExclusaoDadosMessage;
+import io.fiap.revenda.veiculos.driven.crypto.CriptografiaPessoa;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableDocumento;
+import io.fiap.revenda.veiculos.driven.domain.ImmutablePessoa;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableReserva;
+import io.fiap.revenda.veiculos.driven.domain.Reserva;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import io.fiap.revenda.veiculos.driven.repository.ReservaRepository;
+import java.time.LocalDate;
+import java.util.Collection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ReservaServiceTests {
+
+    private final ReservaRepository repository = mock(ReservaRepository.class);
+    private final ExpiracaoReservaTimer timer = mock(ExpiracaoReservaTimer.class);
+    private final CriptografiaPessoa criptografia = mock(CriptografiaPessoa.class);
+    private ReservaService service;
+
+    @BeforeEach
+    void setUp() {
+        service = servico("false");
+        when(repository.fetchByPessoaId(anyString())).thenReturn(Flux.empty());
+        when(repository.fetchByDocumento(anyString())).thenReturn(Flux.empty());
+        when(repository.fetchLegadoByPessoa(anyString(), any())).thenReturn(Flux.empty());
+        when(repository.deleteAll(anyCollection())).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void erasesTheReservationsFoundThroughBothPersonIndexesOnce() {
+        when(repository.fetchByPessoaId("p1")).thenReturn(Flux.just(reserva("r1"), reserva("r2")));
+        when(repository.fetchByDocumento("12345678900")).thenReturn(Flux.just(reserva("r2"), reserva("r3")));
+
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa("12345678900")))
+            .verifyComplete();
+
+        assertThat(excluidas()).extracting(Reserva::getId).containsExactlyInAnyOrder("r1", "r2", "r3");
+        verify(timer).cancelar("r1");
+        verify(timer).cancelar("r2");
+        verify(timer).cancelar("r3");
+        verify(repository, never()).fetchLegadoByPessoa(anyString(), any());
+    }
+
+    @Test
+    void skipsTheDocumentIndexWithoutADocument() {
+        when(repository.fetchByPessoaId("p1")).thenReturn(Flux.just(reserva("r1")));
+
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa(null)))
+            .verifyComplete();
+
+        assertThat(excluidas()).extracting(Reserva::getId).containsExactly("r1");
+        verify(repository, never()).fetchByDocumento(anyString());
+    }
+
+    @Test
+    void deletesNothingWhenThePersonHasNoReservations() {
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa("12345678900")))
+            .verifyComplete();
+
+        verify(repository, never()).deleteAll(anyCollection());
+        verify(timer, never()).cancelar(anyString());
+    }
+
+    @Test
+    void alsoErasesUnmigratedReservationsWhileTheFallbackIsOn() {
+        service = servico("true");
+        when(repository.fetchByPessoaId("p1")).thenReturn(Flux.just(reserva("r1")));
+        when(repository.fetchLegadoByPessoa("p1", "12345678900")).thenReturn(Flux.just(reserva("r0"), reserva("r1")));
+
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa("12345678900")))
+            .verifyComplete();
+
+        assertThat(excluidas()).extracting(Reserva::getId).containsExactlyInAnyOrder("r0", "r1");
+    }
+
+    @Test
+    void shredsThePersonKeyBeforeDeletingTheRows() {
+        when(criptografia.isEnabled()).thenReturn(true);
+        when(criptografia.fragmentar("p1")).thenReturn(Mono.empty());
+        when(repository.fetchByPessoaId("p1")).thenReturn(Flux.just(reserva("r1")));
+
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa(null)))
+            .verifyComplete();
+
+        var ordem = inOrder(criptografia, repository);
+        ordem.verify(criptografia).fragmentar("p1");
+        ordem.verify(repository).deleteAll(anyCollection());
+    }
+
+    @Test
+    void keepsTheTimersWhenTheDeletionFails() {
+        when(repository.fetchByPessoaId("p1")).thenReturn(Flux.just(reserva("r1")));
+        when(repository.deleteAll(anyCollection())).thenReturn(Mono.error(new UnavailableException("conflito")));
+
+        StepVerifier.create(service.eliminarDadosPessoais(pessoa(null)))
+            .expectError(UnavailableException.class)
+            .verify();
+
+        verify(timer, never()).cancelar(anyString());
+    }
+
+    private ReservaService servico(String fallback) {
+        return new ReservaService(repository, timer, criptografia, new ObjectMapper(), fallback, "3", "10", "20");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Reserva> excluidas() {
+        ArgumentCaptor<Collection<Reserva>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(repository).deleteAll(captor.capture());
+        return captor.getValue();
+    }
+
+    private ImmutablePessoaExclusaoDadosMessage pessoa(String documento) {
+        return ImmutablePessoaExclusaoDadosMessage.builder()
+            .id("p1")
+            .documento(documento)
+            .build();
+    }
+
+    private Reserva reserva(String id) {
+        return ImmutableReserva.builder()
+            .id(id)
+            .veiculoId("v-" + id)
+            .veiculoPlaca("ABC1D23")
+            .veiculoRenavam("12345678900")
+            .codigo("c-" + id)
+            .pessoa(ImmutablePessoa.builder()
+                .id("p1")
+                .documento(ImmutableDocumento.builder()
+                    .tipo("CPF")
+                    .valor("12345678900")
+                    .build())
+                .build())
+            .reservadoEm(LocalDate.of(2030, 1, 7))
+            .expiraEm(LocalDate.of(2030, 1, 10))
+            .build();
+    }
+}
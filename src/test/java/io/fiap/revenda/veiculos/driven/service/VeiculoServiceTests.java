@@ -0,0 +1,128 @@
+package io.fiap.revenda.veiculos.driven.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatch;
+import io.fiap.revenda.veiculos.driven.cache.VeiculoCache;
+import io.fiap.revenda.veiculos.driven.domain.AlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.domain.ImmutableAlteracaoVeiculo;
+import io.fiap.revenda.veiculos.driven.exception.BadRequestException;
+import io.fiap.revenda.veiculos.driven.repository.VeiculoRepository;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class VeiculoServiceTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReservaService reservaService = mock(ReservaService.class);
+    private final VeiculoCache veiculoCache = mock(VeiculoCache.class);
+    private final VeiculoRepository repository = mock(VeiculoRepository.class);
+    private VeiculoService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new VeiculoService(reservaService, veiculoCache, repository, objectMapper, "50", "500");
+        when(repository.patch(anyString(), anyList())).thenReturn(Mono.empty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void translatesPatchOperations() throws Exception {
+        var patch = patch("""
+            [
+              {"op": "replace", "path": "/valor", "value": "45000.50"},
+              {"op": "add", "path": "/opcionais/teto", "value": "solar"},
+              {"op": "remove", "path": "/opcionais/som"},
+              {"op": "test", "path": "/placa", "value": "ABC1D23"}
+            ]
+            """);
+
+        StepVerifier.create(service.patch("v1", patch))
+            .verifyComplete();
+
+        ArgumentCaptor<List<AlteracaoVeiculo>> alteracoes = ArgumentCaptor.forClass(List.class);
+        verify(repository).patch(eq("v1"), alteracoes.capture());
+        assertThat(alteracoes.getValue()).containsExactly(
+            alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "valor", null, "45000.50"),
+            alteracao(AlteracaoVeiculo.Operacao.DEFINIR, "opcionais", "teto", "solar"),
+            alteracao(AlteracaoVeiculo.Operacao.REMOVER, "opcionais", "som", null),
+            alteracao(AlteracaoVeiculo.Operacao.TESTAR, "placa", null, "ABC1D23"));
+        verify(veiculoCache).invalidate("v1");
+    }
+
+    @Test
+    void rejectsPatchesOnVendido() throws Exception {
+        assertRejected("""
+            [{"op": "replace", "path": "/vendido", "value": "true"}]
+            """);
+    }
+
+    @Test
+    void rejectsPatchesThatOnlyTest() throws Exception {
+        assertRejected("""
+            [{"op": "test", "path": "/cor", "value": "preto"}]
+            """);
+    }
+
+    @Test
+    void rejectsRemovingRequiredAttributes() throws Exception {
+        assertRejected("""
+            [{"op": "remove", "path": "/cor"}]
+            """);
+    }
+
+    @Test
+    void rejectsReplacingAllOptionalsAtOnce() throws Exception {
+        assertRejected("""
+            [{"op": "replace", "path": "/opcionais", "value": "teto"}]
+            """);
+    }
+
+    @Test
+    void rejectsNonNumericValor() throws Exception {
+        assertRejected("""
+            [{"op": "replace", "path": "/valor", "value": "caro"}]
+            """);
+    }
+
+    @Test
+    void rejectsUnsupportedOperations() throws Exception {
+        assertRejected("""
+            [{"op": "move", "from": "/cor", "path": "/marca"}]
+            """);
+    }
+
+    private void assertRejected(String json) throws Exception {
+        StepVerifier.create(service.patch("v1", patch(json)))
+            .expectError(BadRequestException.class)
+            .verify();
+
+        verify(repository, never()).patch(anyString(), anyList());
+        verify(veiculoCache, never()).invalidate(anyString());
+    }
+
+    private JsonPatch patch(String json) throws Exception {
+        return JsonPatch.fromJson(objectMapper.readTree(json));
+    }
+
+    private AlteracaoVeiculo alteracao(AlteracaoVeiculo.Operacao operacao, String campo, String chave, String valor) {
+        return ImmutableAlteracaoVeiculo.builder()
+            .operacao(operacao)
+            .campo(campo)
+            .chave(chave)
+            .valor(valor)
+            .build();
+    }
+}
@@ -0,0 +1,155 @@
+package io.fiap.revenda.veiculos.driver.controller;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.fiap.revenda.veiculos.driven.domain.ImmutablePagina;
+import io.fiap.revenda.veiculos.driven.domain.Veiculo;
+import io.fiap.revenda.veiculos.driven.domain.mapper.ResultadoEscritaMapper;
+import io.fiap.revenda.veiculos.driven.domain.mapper.VeiculoMapper;
+import io.fiap.revenda.veiculos.driven.service.VeiculoService;
+import io.fiap.revenda.veiculos.driver.controller.dto.ImmutableVeiculoDTO;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class VeiculoControllerTests {
+
+    private final VeiculoService veiculoService = mock(VeiculoService.class);
+    private final VeiculoMapper veiculoMapper = mock(VeiculoMapper.class);
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        var veiculo = mock(Veiculo.class);
+        when(veiculoMapper.dtoFromDomain(any())).thenReturn(ImmutableVeiculoDTO.builder()
+            .id("v1")
+            .ano("2020")
+            .cor("preto")
+            .valor("50000")
+            .marca("Fiat")
+            .placa("ABC1D23")
+            .cambio("manual")
+            .modelo("Uno")
+            .renavam("12345678900")
+            .vendido(false)
+            .motorizacao("1.0")
+            .quilometragem("10000")
+            .opcionais(Map.of())
+            .build());
+        when(veiculoService.fetch(anyBoolean(), any(), any())).thenReturn(Mono.just(pagina(veiculo)));
+        when(veiculoService.fetch(anyBoolean(), any(), any(), any(), any())).thenReturn(Mono.just(pagina(veiculo)));
+        when(veiculoService.fetchAll(anyBoolean(), any(), any())).thenReturn(Flux.just(veiculo));
+
+        client = WebTestClient.bindToController(new VeiculoController(veiculoService, veiculoMapper,
+                mock(ResultadoEscritaMapper.class)))
+            .build();
+    }
+
+    @Test
+    void returnsAJsonPageWithoutAnAcceptHeader() {
+        client.get().uri("/veiculos")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+            .expectBody().jsonPath("$[0].id").isEqualTo("v1");
+
+        verify(veiculoService).fetch(eq(false), any(), any(), any(), any());
+        verify(veiculoService, never()).fetchAll(anyBoolean(), any(), any());
+    }
+
+    @Test
+    void returnsAJsonPageForAnyMediaType() {
+        client.get().uri("/veiculos")
+            .accept(MediaType.ALL)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON);
+
+        verify(veiculoService, never()).fetchAll(anyBoolean(), any(), any());
+    }
+
+    @Test
+    void returnsAJsonPageForJson() {
+        client.get().uri("/veiculos")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON);
+
+        verify(veiculoService, never()).fetchAll(anyBoolean(), any(), any());
+    }
+
+    @Test
+    void streamsNdjson() {
+        client.get().uri("/veiculos?precoMin=1000")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON);
+
+        verify(veiculoService).fetchAll(eq(false), any(), any());
+        verify(veiculoService, never()).fetch(anyBoolean(), any(), any(), any(), any());
+    }
+
+    @Test
+    void streamsServerSentEvents() {
+        client.get().uri("/veiculos")
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM);
+
+        verify(veiculoService).fetchAll(eq(false), any(), any());
+    }
+
+    @Test
+    void returnsAJsonPageOfSoldVehiclesWithoutAnAcceptHeader() {
+        client.get().uri("/veiculos/vendidos")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON);
+
+        verify(veiculoService).fetch(eq(true), any(), any());
+        verify(veiculoService, never()).fetchAll(anyBoolean(), any(), any());
+    }
+
+    @Test
+    void streamsSoldVehiclesAsNdjson() {
+        client.get().uri("/veiculos/vendidos")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON);
+
+        verify(veiculoService).fetchAll(eq(true), any(), any());
+    }
+
+    @Test
+    void fetchesByIdsRegardlessOfTheStreamingMappings() {
+        when(veiculoService.fetchByIds(any())).thenReturn(Flux.just(mock(Veiculo.class)));
+
+        client.get().uri("/veiculos?ids=v1,v2")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON);
+
+        verify(veiculoService).fetchByIds(List.of("v1", "v2"));
+    }
+
+    private ImmutablePagina<Veiculo> pagina(Veiculo veiculo) {
+        return ImmutablePagina.<Veiculo>builder()
+            .addItens(veiculo)
+            .build();
+    }
+}
@@ -0,0 +1,450 @@
+package io.fiap.revenda.veiculos.driver.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.fiap.revenda.veiculos.driven.client.ResultadoMensagem;
+import io.fiap.revenda.veiculos.driven.client.SqsMessageClient;
+import io.fiap.revenda.veiculos.driven.client.dto.MensagemQuarentenaMessage;
+import io.fiap.revenda.veiculos.driven.exception.TechnicalException;
+import io.fiap.revenda.veiculos.driven.exception.UnavailableException;
+import io.fiap.revenda.veiculos.driven.repository.MensagemProcessadaRepository;
+import io.fiap.revenda.veiculos.driven.repository.MensagemProcessadaRepository.Situacao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+class SqsConsumerTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final String QUEUE = "fila";
+    private static final String DEAD_LETTER_QUEUE = "fila_dlq";
+
+    private final SqsMessageClient messageClient = mock(SqsMessageClient.class);
+    private final Queue<Message> pendentes = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Map<QueueAttributeName, String>> profundidade = new AtomicReference<>(Map.of());
+    private final AtomicInteger leituras = new AtomicInteger();
+    private final MensagemProcessadaRepository processadas = mock(MensagemProcessadaRepository.class);
+    private SqsConsumer consumer;
+
+    @AfterEach
+    void tearDown() {
+        if (consumer != null) {
+            consumer.dispose();
+        }
+    }
+
+    @Test
+    void processesMessagesWithTheSameKeyInOrder() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"), mensagem("2", "A:2"), mensagem("3", "A:3"),
+            mensagem("4", "A:4"));
+        var ordem = new CopyOnWriteArrayList<String>();
+        var simultaneas = new AtomicInteger();
+        var maximo = new AtomicInteger();
+
+        consumer = particionado(message -> message.body().split(":")[0], (message, chave) -> Mono.defer(() -> {
+                maximo.accumulateAndGet(simultaneas.incrementAndGet(), Math::max);
+                return Mono.delay(Duration.ofMillis(20));
+            })
+            .doOnNext(tick -> ordem.add(message.body()))
+            .doFinally(signal -> simultaneas.decrementAndGet())
+            .then());
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(ordem).containsExactly("A:1", "A:2", "A:3", "A:4");
+        assertThat(maximo.get()).isEqualTo(1);
+    }
+
+    @Test
+    void processesDifferentKeysInParallel() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"), mensagem("2", "B:1"));
+        var liberarA = Sinks.empty();
+
+        consumer = particionado(message -> message.body().split(":")[0], (message, chave) -> chave.equals("A")
+            ? liberarA.asMono().then()
+            : Mono.fromRunnable(liberarA::tryEmitEmpty));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    void readsTheKeyOncePerMessageAndPassesItToTheHandler() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"), mensagem("2", "B:1"), mensagem("3", "A:2"));
+        var leituras = new AtomicInteger();
+        Map<String, String> recebidas = new ConcurrentHashMap<>();
+
+        consumer = particionado(message -> {
+            leituras.incrementAndGet();
+            return message.body().split(":")[0];
+        }, (message, chave) -> Mono.fromRunnable(() -> recebidas.put(message.messageId(), chave)));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(leituras.get()).isEqualTo(3);
+        assertThat(recebidas).containsExactlyInAnyOrderEntriesOf(Map.of("1", "A", "2", "B", "3", "A"));
+    }
+
+    @Test
+    void routesMessagesWithAnUnreadableKeyByMessageId() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "invalida"));
+        var recebidas = new CopyOnWriteArrayList<String>();
+
+        consumer = particionado(message -> {
+            throw new IllegalArgumentException("corpo inválido");
+        }, (message, chave) -> Mono.fromRunnable(() -> recebidas.add(String.valueOf(chave))));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(recebidas).containsExactly("null");
+    }
+
+    @Test
+    void delaysAFailedMessageExponentiallyBeforeTheLastAttempt() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(3);
+
+        consumer = simples((message, chave) -> Mono.error(new TechnicalException("falha")));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(messageClient).changeVisibility(eq(QUEUE), any(), eq(Duration.ofSeconds(4)));
+        verify(messageClient, never()).send(eq(DEAD_LETTER_QUEUE), any());
+    }
+
+    @Test
+    void capsTheRetryDelay() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(4);
+
+        consumer = new SqsConsumer(QUEUE, messageClient, 1, 10, 10, null, null,
+            new SqsConsumer.Reprocessamento(5, Duration.ofSeconds(1), Duration.ofSeconds(6), DEAD_LETTER_QUEUE),
+            (message, chave) -> Mono.error(new TechnicalException("falha")));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(messageClient).changeVisibility(eq(QUEUE), any(), eq(Duration.ofSeconds(6)));
+    }
+
+    @Test
+    void movesAMessageToTheDeadLetterQueueAfterTheLastAttempt() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(5);
+        when(messageClient.send(eq(DEAD_LETTER_QUEUE), any())).thenReturn(Mono.empty());
+
+        consumer = simples((message, chave) -> Mono.error(new TechnicalException("falha")));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        var quarentena = ArgumentCaptor.forClass(MensagemQuarentenaMessage.class);
+        verify(messageClient).send(eq(DEAD_LETTER_QUEUE), quarentena.capture());
+        assertThat(quarentena.getValue().getMessageId()).isEqualTo("1");
+        assertThat(quarentena.getValue().getBody()).isEqualTo("A:1");
+        assertThat(quarentena.getValue().getTentativas()).isEqualTo(5);
+        assertThat(quarentena.getValue().getErro()).isEqualTo(TechnicalException.class.getName());
+        verify(messageClient, never()).changeVisibility(any(), any(), any());
+    }
+
+    @Test
+    void neverMovesAnUnavailableFailureToTheDeadLetterQueue() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(9);
+
+        consumer = simples((message, chave) -> Mono.error(new UnavailableException("em processamento")));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(messageClient, never()).send(eq(DEAD_LETTER_QUEUE), any());
+        verify(messageClient, never()).delete(eq(QUEUE), any());
+    }
+
+    @Test
+    void neverMovesAThrottledFailureToTheDeadLetterQueue() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(9);
+        var throttling = AwsServiceException.builder()
+            .statusCode(400)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+            .build();
+
+        consumer = simples((message, chave) -> Mono.error(throttling));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(messageClient, never()).send(eq(DEAD_LETTER_QUEUE), any());
+    }
+
+    @Test
+    void keepsRetryingWithoutADeadLetterQueue() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(9);
+
+        consumer = new SqsConsumer(QUEUE, messageClient, 1, 10, 10, null, null,
+            new SqsConsumer.Reprocessamento(5, Duration.ofSeconds(1), Duration.ofSeconds(10), null),
+            (message, chave) -> Mono.error(new TechnicalException("falha")));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(messageClient).changeVisibility(eq(QUEUE), any(), eq(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void scalesPollersAndConcurrencyUpWithTheBacklogAtOnce() {
+        receber();
+        medir(35L, 0L);
+
+        consumer = escalonado(1, 1);
+        consumer.start();
+
+        assertThat(aguardar(() -> consumer.getPollers() == 4 && consumer.getConcurrency() == 35)).isTrue();
+    }
+
+    @Test
+    void scalesDownOnlyAfterConsecutiveLowerReadings() {
+        receber();
+        medir(35L, 0L);
+
+        consumer = escalonado(1, 1);
+        consumer.start();
+        assertThat(aguardar(() -> consumer.getPollers() == 4)).isTrue();
+
+        var leiturasAntes = leituras.get();
+        medir(5L, 0L);
+
+        assertThat(aguardar(() -> consumer.getPollers() == 1 && consumer.getConcurrency() == 5)).isTrue();
+        assertThat(leituras.get() - leiturasAntes).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void keepsMinPollersWhenTheQueueIsEmpty() {
+        receber();
+        medir(0L, 0L);
+
+        consumer = escalonado(4, 2);
+        consumer.start();
+
+        assertThat(aguardar(() -> consumer.getPollers() == 2 && consumer.getConcurrency() == 5)).isTrue();
+        var leiturasAntes = leituras.get();
+        assertThat(aguardar(() -> leituras.get() - leiturasAntes >= 5)).isTrue();
+        assertThat(consumer.getPollers()).isEqualTo(2);
+        verify(messageClient, timeout(TIMEOUT.toMillis()).atLeast(2)).receive(eq(QUEUE), anyInt());
+    }
+
+    @Test
+    void keepsMinPollersForASmallBacklog() {
+        receber();
+        medir(3L, 0L);
+
+        consumer = escalonado(4, 2);
+        consumer.start();
+
+        assertThat(aguardar(() -> consumer.getPollers() == 2)).isTrue();
+    }
+
+    @Test
+    void acknowledgesADuplicateDeliveryWithoutHandlingIt() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"));
+        when(processadas.iniciar(eq(QUEUE + ":1"), any())).thenReturn(Mono.just(Situacao.PROCESSADA));
+        var tratadas = new AtomicInteger();
+
+        consumer = simples(idempotente((message, chave) -> Mono.fromRunnable(tratadas::incrementAndGet)));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(tratadas.get()).isZero();
+        verify(processadas, never()).concluir(any(), any());
+    }
+
+    @Test
+    void skipsARedeliveryAlreadyProcessedByThisInstanceWithoutTheStore() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"), mensagem("1", "A:1"));
+        when(processadas.iniciar(eq(QUEUE + ":1"), any())).thenReturn(Mono.just(Situacao.NOVA));
+        when(processadas.concluir(eq(QUEUE + ":1"), any())).thenReturn(Mono.empty());
+        var tratadas = new AtomicInteger();
+
+        consumer = particionado(message -> message.body().split(":")[0],
+            idempotente((message, chave) -> Mono.fromRunnable(tratadas::incrementAndGet)));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(tratadas.get()).isEqualTo(1);
+        verify(processadas).iniciar(eq(QUEUE + ":1"), any());
+    }
+
+    @Test
+    void delaysADeliveryStillInProgressElsewhere() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(9);
+        when(processadas.iniciar(eq(QUEUE + ":1"), any())).thenReturn(Mono.just(Situacao.EM_ANDAMENTO));
+        var tratadas = new AtomicInteger();
+
+        consumer = simples(idempotente((message, chave) -> Mono.fromRunnable(tratadas::incrementAndGet)));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(tratadas.get()).isZero();
+        verify(messageClient, never()).send(eq(DEAD_LETTER_QUEUE), any());
+        verify(messageClient, never()).delete(eq(QUEUE), any());
+    }
+
+    @Test
+    void acknowledgesAHandledMessageEvenIfItCannotBeMarkedAsProcessed() throws InterruptedException {
+        var concluidas = receber(mensagem("1", "A:1"));
+        when(processadas.iniciar(eq(QUEUE + ":1"), any())).thenReturn(Mono.just(Situacao.NOVA));
+        when(processadas.concluir(eq(QUEUE + ":1"), any()))
+            .thenReturn(Mono.error(new UnavailableException("indisponível")));
+        var tratadas = new AtomicInteger();
+
+        consumer = simples(idempotente((message, chave) -> Mono.fromRunnable(tratadas::incrementAndGet)));
+        consumer.start();
+
+        assertThat(concluidas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(tratadas.get()).isEqualTo(1);
+        verify(processadas, never()).cancelar(any());
+        verify(messageClient, never()).changeVisibility(any(), any(), any());
+    }
+
+    @Test
+    void releasesTheLeaseOfAFailedHandler() throws InterruptedException {
+        var reagendadas = reagendar();
+        receber(mensagem("1", "A:1"));
+        when(messageClient.getReceiveCount(any())).thenReturn(1);
+        when(processadas.iniciar(eq(QUEUE + ":1"), any())).thenReturn(Mono.just(Situacao.NOVA));
+        when(processadas.cancelar(QUEUE + ":1")).thenReturn(Mono.empty());
+
+        consumer = simples(idempotente((message, chave) -> Mono.error(new TechnicalException("falha"))));
+        consumer.start();
+
+        assertThat(reagendadas.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        verify(processadas).cancelar(QUEUE + ":1");
+        verify(processadas, never()).concluir(any(), any());
+    }
+
+    private BiFunction<Message, String, Mono<Void>> idempotente(BiFunction<Message, String, Mono<Void>> handler) {
+        return new IdempotenciaMensagens(processadas, new SimpleMeterRegistry(), "900000", "345600000", "100")
+            .proteger(QUEUE, handler);
+    }
+
+    private SqsConsumer escalonado(Integer pollers, Integer minPollers) {
+        when(messageClient.getQueueAttributes(eq(QUEUE), any(QueueAttributeName[].class)))
+            .thenAnswer(invocation -> Mono.fromSupplier(() -> {
+                leituras.incrementAndGet();
+                return profundidade.get();
+            }));
+        return new SqsConsumer(QUEUE, messageClient, pollers, 10, 5,
+            new SqsConsumer.Escalonamento(Duration.ofMillis(20), minPollers, 4, 5, 40, 3, Duration.ofMillis(50),
+                Duration.ofMillis(20)),
+            null,
+            new SqsConsumer.Reprocessamento(5, Duration.ofSeconds(1), Duration.ofSeconds(10), DEAD_LETTER_QUEUE),
+            (message, chave) -> Mono.empty());
+    }
+
+    private void medir(Long visiveis, Long invisiveis) {
+        profundidade.set(Map.of(
+            QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, String.valueOf(visiveis),
+            QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, String.valueOf(invisiveis)));
+    }
+
+    private Boolean aguardar(BooleanSupplier condicao) {
+        var limite = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condicao.getAsBoolean()) {
+            if (System.nanoTime() > limite) {
+                return false;
+            }
+            LockSupport.parkNanos(Duration.ofMillis(5).toNanos());
+        }
+        return true;
+    }
+
+    private SqsConsumer simples(BiFunction<Message, String, Mono<Void>> handler) {
+        return new SqsConsumer(QUEUE, messageClient, 1, 10, 10, null, null,
+            new SqsConsumer.Reprocessamento(5, Duration.ofSeconds(1), Duration.ofSeconds(10), DEAD_LETTER_QUEUE),
+            handler);
+    }
+
+    private CountDownLatch reagendar() {
+        var reagendadas = new CountDownLatch(1);
+        when(messageClient.changeVisibility(eq(QUEUE), any(), any())).thenAnswer(invocation -> {
+            reagendadas.countDown();
+            return Mono.empty();
+        });
+        return reagendadas;
+    }
+
+    private SqsConsumer particionado(Function<Message, String> chave,
+                                     BiFunction<Message, String, Mono<Void>> handler) {
+        return new SqsConsumer(QUEUE, messageClient, 1, 10, 10, null,
+            new SqsConsumer.Particionamento(chave, 16, 4),
+            new SqsConsumer.Reprocessamento(5, Duration.ofSeconds(1), Duration.ofSeconds(10), null),
+            handler);
+    }
+
+    private CountDownLatch receber(Message... mensagens) {
+        pendentes.addAll(List.of(mensagens));
+        var concluidas = new CountDownLatch(mensagens.length);
+
+        when(messageClient.receive(eq(QUEUE), anyInt())).thenAnswer(invocation -> {
+            Integer maximo = invocation.getArgument(1);
+            var lote = new ArrayList<Message>();
+            Message message;
+            while (lote.size() < maximo && (message = pendentes.poll()) != null) {
+                lote.add(message);
+            }
+            return lote.isEmpty()
+                ? Mono.delay(Duration.ofMillis(10)).map(tick -> ReceiveMessageResponse.builder().build())
+                : Mono.just(ReceiveMessageResponse.builder().messages(lote).build());
+        });
+        when(messageClient.delete(eq(QUEUE), any())).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(1);
+            concluidas.countDown();
+            return Mono.just(ResultadoMensagem.sucesso(message.messageId()));
+        });
+        return concluidas;
+    }
+
+    private Message mensagem(String id, String corpo) {
+        return Message.builder()
+            .messageId(id)
+            .receiptHandle("handle-" + id)
+            .body(corpo)
+            .build();
+    }
+}